@@ -31,12 +31,13 @@
 package aldenjava.opticalmapping;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.commons.lang.StringUtils;
 
 /**
- * A class storing Cigar string, which is composed of 'M', 'I' and 'D' for match, insertion and deletion of signal (not segment). A pre-cigar (e.g. 'MMMDMMIM') is the stored rather than the Cigar string ('3M1D2M1I1M'), for the sake of convenience in modification. This cigar accepts characters other than 'M', 'I' and 'D' for future development.
- * 
+ * A class storing Cigar string, which is composed of 'M', 'I' and 'D' for match, insertion and deletion of signal (not segment). The cigar is stored as runs of identical characters (e.g. 'MMMDMMIM' is stored as 3 'M', 1 'D', 2 'M', 1 'I' and 1 'M'), such that appending, counting and reversing do not expand the pre-cigar. Runs are accessed by {@link #getRunCount()}, {@link #getRunOp(int)} and {@link #getRunLength(int)}. The pre-cigar and the Cigar string are only constructed on request. This cigar accepts characters other than 'M', 'I' and 'D' for future development.
+ *
  * @author Alden
  *
  */
@@ -45,35 +46,46 @@ public class Cigar {
 	private int indexM = 0;
 	private int indexD = 0;
 	private int indexI = 0;
-	private StringBuilder precigar;
+	private char[] runop;
+	private int[] runlength;
+	private int runcount;
+	private int length;
+	// the runs are read in reverse order if reversed is true
+	private boolean reversed;
 
 	/**
 	 * Creates a blank <code>Cigar</code> without any information.
 	 */
 	public Cigar() {
-		this.precigar = new StringBuilder();
-		resetMDPIndex();
+		this.runop = new char[4];
+		this.runlength = new int[4];
+		clear();
 	}
 
 	/**
 	 * Creates a <code>Cigar</code> according to the specified <code>precigar</code>.
-	 * 
+	 *
 	 * @param precigar
 	 *            a string containing the precigar
 	 */
 	public Cigar(String precigar) {
-		this.precigar = new StringBuilder(precigar);
-		reCalcMDPIndex();
+		this();
+		importPrecigar(precigar);
 	}
 
 	/**
 	 * Constructs a new <code>Cigar</code>, initialized to match the values of the specified <code>Cigar</code>.
-	 * 
+	 *
 	 * @param cigar
 	 *            the <code>Cigar</code> from which to copy initial values to a newly constructed <code>Cigar</code>
 	 */
 	public Cigar(Cigar cigar) {
-		this.precigar = new StringBuilder(cigar.precigar);
+		int capacity = Math.max(cigar.runcount, 4);
+		this.runop = Arrays.copyOf(cigar.runop, capacity);
+		this.runlength = Arrays.copyOf(cigar.runlength, capacity);
+		this.runcount = cigar.runcount;
+		this.length = cigar.length;
+		this.reversed = cigar.reversed;
 		this.indexM = cigar.indexM;
 		this.indexI = cigar.indexI;
 		this.indexD = cigar.indexD;
@@ -81,43 +93,41 @@ public class Cigar {
 
 	/**
 	 * Import information into <code>Cigar</code> according to the specified <code>cigar</code>.
-	 * 
+	 *
 	 * @param cigar
 	 *            a string containing the cigar
 	 * @see #importPrecigar(String)
 	 */
 	public void importCigar(String cigar) {
-		StringBuilder precigar = new StringBuilder();
-		StringBuilder recent = new StringBuilder();
+		clear();
+		int number = -1;
 		for (int i = 0; i < cigar.length(); i++) {
 			char c = cigar.charAt(i);
 			if (c >= '0' && c <= '9')
-				recent.append(c);
+				number = (number == -1 ? 0 : number * 10) + (c - '0');
 			else {
-				if (recent.length() == 0) {
-					this.precigar = new StringBuilder();
+				if (number == -1) {
+					clear();
 					return;
 				} else {
-					int number = Integer.parseInt(recent.toString());
-					for (int j = 0; j < number; j++)
-						precigar.append(c);
-					recent = new StringBuilder();
+					append(c, number);
+					number = -1;
 				}
 			}
 		}
-		this.precigar = precigar;
-		reCalcMDPIndex();
 	}
+
 	/**
 	 * Imports information into <code>Cigar</code> according to the specified <code>precigar</code>.
-	 * 
+	 *
 	 * @param precigar
 	 *            a string containing the precigar
 	 * @see #importCigar(String)
 	 */
 	public void importPrecigar(String precigar) {
-		this.precigar = new StringBuilder(precigar);
-		reCalcMDPIndex();
+		clear();
+		for (int i = 0; i < precigar.length(); i++)
+			append(precigar.charAt(i));
 	}
 
 	/**
@@ -125,41 +135,121 @@ public class Cigar {
 	 * @param c	Any character 'M', 'I' or 'D'
 	 */
 	public void append(char c) {
-		precigar.append(c);
-		addMDPIndex(c);
+		append(c, 1);
 	}
+
+	/**
+	 * Appends <code>count</code> copies of a match, insertion or deletion to this <code>Cigar</code>
+	 * @param c	Any character 'M', 'I' or 'D'
+	 * @param count	number of copies
+	 */
+	public void append(char c, int count) {
+		if (count <= 0)
+			return;
+		normalize();
+		if (runcount > 0 && runop[runcount - 1] == c)
+			runlength[runcount - 1] += count;
+		else {
+			if (runcount == runop.length) {
+				runop = Arrays.copyOf(runop, runcount * 2);
+				runlength = Arrays.copyOf(runlength, runcount * 2);
+			}
+			runop[runcount] = c;
+			runlength[runcount] = count;
+			runcount++;
+		}
+		length += count;
+		addMDPIndex(c, count);
+	}
+
 	/**
 	 * Appends a <code>Cigar</Cigar> to this <code>Cigar</code>
 	 * @param cigar	another <code>Cigar</Cigar>
 	 */
 	public void append(Cigar cigar) {
-		precigar.append(cigar.precigar);
-		indexM += cigar.indexM;
-		indexI += cigar.indexI;
-		indexD += cigar.indexD;
+		if (cigar == this)
+			cigar = new Cigar(cigar);
+		for (int i = 0; i < cigar.getRunCount(); i++)
+			append(cigar.getRunOp(i), cigar.getRunLength(i));
+	}
+
+	/**
+	 * Returns the number of runs of identical characters
+	 *
+	 * @return the number of runs
+	 */
+	public int getRunCount() {
+		return runcount;
+	}
+
+	/**
+	 * Returns the character of the <code>index</code>-th run
+	 *
+	 * @param index
+	 *            index of the run
+	 * @return the character of the run
+	 */
+	public char getRunOp(int index) {
+		return runop[reversed ? runcount - 1 - index : index];
+	}
+
+	/**
+	 * Returns the length of the <code>index</code>-th run
+	 *
+	 * @param index
+	 *            index of the run
+	 * @return the length of the run
+	 */
+	public int getRunLength(int index) {
+		return runlength[reversed ? runcount - 1 - index : index];
+	}
+
+	/**
+	 * Returns the length of the pre-cigar
+	 *
+	 * @return the length of the pre-cigar
+	 */
+	public int length() {
+		return length;
+	}
+
+	private void normalize() {
+		if (reversed) {
+			for (int i = 0, j = runcount - 1; i < j; i++, j--) {
+				char c = runop[i];
+				runop[i] = runop[j];
+				runop[j] = c;
+				int l = runlength[i];
+				runlength[i] = runlength[j];
+				runlength[j] = l;
+			}
+			reversed = false;
+		}
 	}
 
-	private void addMDPIndex(char c) {
+	private void clear() {
+		runcount = 0;
+		length = 0;
+		reversed = false;
+		resetMDPIndex();
+	}
+
+	private void addMDPIndex(char c, int count) {
 		switch (c) {
 			case 'M':
-				indexM++;
+				indexM += count;
 				break;
 			case 'I':
-				indexI++;
+				indexI += count;
 				break;
 			case 'D':
-				indexD++;
+				indexD += count;
 				break;
 			default:
 				;
 		}
 	}
 
-	private void addMDPIndex(String precigar) {
-		for (char c : precigar.toCharArray())
-			addMDPIndex(c);
-	}
-	
 	private void resetMDPIndex() {
 		indexM = 0;
 		indexI = 0;
@@ -168,36 +258,39 @@ public class Cigar {
 
 	public void reCalcMDPIndex() {
 		resetMDPIndex();
-		addMDPIndex(this.precigar.toString());
+		for (int i = 0; i < runcount; i++)
+			addMDPIndex(runop[i], runlength[i]);
 	}
 
 	public String getCigar() {
-		char prevc = '~';
-		int accumulate = 0;
 		StringBuilder cigar = new StringBuilder();
-		for (int i = 0; i < precigar.length(); i++) {
-			char c = precigar.charAt(i);
-			if (prevc != c) {
-				if (accumulate > 0) {
-					cigar.append(Integer.toString(accumulate));
-					cigar.append(prevc);
-				}
-				prevc = c;
-				accumulate = 1;
-			} else
-				accumulate++;
-		}
-		if (accumulate > 0) {
-			cigar.append(Integer.toString(accumulate));
-			cigar.append(prevc);
+		for (int i = 0; i < runcount; i++) {
+			cigar.append(Integer.toString(getRunLength(i)));
+			cigar.append(getRunOp(i));
 		}
 		return cigar.toString();
 	}
 
 	public String getPrecigar() {
+		StringBuilder precigar = new StringBuilder(length);
+		appendTo(precigar);
 		return precigar.toString();
 	}
 
+	/**
+	 * Appends the precigar of this <code>Cigar</code> to <code>precigar</code> without constructing an intermediate string
+	 *
+	 * @param precigar
+	 *            the builder to be appended
+	 */
+	public void appendTo(StringBuilder precigar) {
+		for (int i = 0; i < runcount; i++) {
+			char c = getRunOp(i);
+			for (int j = getRunLength(i); j > 0; j--)
+				precigar.append(c);
+		}
+	}
+
 	public Cigar getReverseCigar() {
 		Cigar newcigar = new Cigar(this);
 		newcigar.reverse();
@@ -218,14 +311,37 @@ public class Cigar {
 
 	public int getNumber(char matchedc) {
 		int total = 0;
-		for (char c : precigar.toString().toCharArray())
-			if (c == matchedc)
-				total++;
+		for (int i = 0; i < runcount; i++)
+			if (runop[i] == matchedc)
+				total += runlength[i];
 		return total;
 	}
 
 	public boolean equals(Cigar cigar) {
-		return this.precigar.toString().equalsIgnoreCase(cigar.precigar.toString());
+		if (this.length != cigar.length)
+			return false;
+		// Compare character by character without case, as runs may differ when cases differ
+		int i1 = 0, i2 = 0;
+		int remain1 = 0, remain2 = 0;
+		char c1 = 0, c2 = 0;
+		while (i1 < this.runcount || remain1 > 0) {
+			if (remain1 == 0) {
+				c1 = this.getRunOp(i1);
+				remain1 = this.getRunLength(i1);
+				i1++;
+			}
+			if (remain2 == 0) {
+				c2 = cigar.getRunOp(i2);
+				remain2 = cigar.getRunLength(i2);
+				i2++;
+			}
+			if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2) && Character.toLowerCase(c1) != Character.toLowerCase(c2))
+				return false;
+			int step = Math.min(remain1, remain2);
+			remain1 -= step;
+			remain2 -= step;
+		}
+		return true;
 	}
 
 	public double calcScore(double match, double fpp, double fnp) {
@@ -233,23 +349,40 @@ public class Cigar {
 	}
 
 	public void removeFlankingUnmatch() {
-		String tmp = precigar.toString();
-		if (tmp.indexOf('M') == -1)
-			this.precigar = new StringBuilder();
-		else
-			this.precigar = new StringBuilder(tmp.substring(tmp.indexOf('M'), tmp.lastIndexOf('M') + 1));
+		normalize();
+		int first = 0;
+		while (first < runcount && runop[first] != 'M')
+			first++;
+		if (first == runcount) {
+			clear();
+			return;
+		}
+		int last = runcount - 1;
+		while (runop[last] != 'M')
+			last--;
+		int newcount = last - first + 1;
+		System.arraycopy(runop, first, runop, 0, newcount);
+		System.arraycopy(runlength, first, runlength, 0, newcount);
+		runcount = newcount;
+		length = 0;
+		for (int i = 0; i < runcount; i++)
+			length += runlength[i];
+		reCalcMDPIndex();
 	}
 
+	/**
+	 * Reverses this <code>Cigar</code>. Only the reading order of the runs is changed.
+	 */
 	public void reverse() {
-		precigar.reverse();
+		reversed = !reversed;
 	}
 
 	public Cigar reverseRefAndFrag() {
-		StringBuilder newprecigar = new StringBuilder();
-		for (char c : precigar.toString().toCharArray())
-			newprecigar.append(c == 'M' ? 'M' : c == 'I' ? 'D' : 'I');
 		Cigar cigar = new Cigar();
-		cigar.importPrecigar(precigar.toString());
+		for (int i = 0; i < runcount; i++) {
+			char c = getRunOp(i);
+			cigar.append(c == 'M' ? 'M' : c == 'I' ? 'D' : 'I', getRunLength(i));
+		}
 		return cigar;
 	}
 
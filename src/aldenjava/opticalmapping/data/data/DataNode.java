@@ -515,19 +515,29 @@ public class DataNode implements Identifiable<String> {
 		return subRefNode(name, subrefstart, subrefstop, flankingSignal);
 	}
 
+	/**
+	 * Returns sizes of all segments. Kmers created from this <code>DataNode</code> are views of this array.
+	 * 
+	 * @return an array of segment sizes
+	 */
+	private long[] getReflArray() {
+		long[] refl = new long[getTotalSegment()];
+		for (int i = 0; i < refl.length; i++)
+			refl[i] = getRefl(i);
+		return refl;
+	}
+
 	public List<Kmer> getKmerWord(int kmerlen, long maxnosignalregion) {
 		List<Kmer> kmerlist = new ArrayList<Kmer>();
+		long[] refl = getReflArray();
 		for (int i = 1; i < getTotalSegment() - kmerlen; i++) // +1 is no need to be added: 2014/05/27
 		{
-			List<Long> sizelist = new ArrayList<Long>();
 			boolean discarded = false;
 			for (int j = i; j < i + kmerlen; j++)
-				if (getRefl(j) <= maxnosignalregion)
-					sizelist.add(getRefl(j));
-				else
+				if (refl[j] > maxnosignalregion)
 					discarded = true;
 			if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
+				kmerlist.add(new Kmer(name, i, refl, i, kmerlen));
 		}
 
 		return kmerlist;
@@ -541,6 +551,7 @@ public class DataNode implements Identifiable<String> {
 		}
 
 		List<Kmer> kmerlist = new ArrayList<Kmer>();
+		long[] refl = getReflArray();
 
 		for (GenomicPosNode region : regionList) {
 			int start = this.findRefpIndex(region.start);
@@ -551,7 +562,6 @@ public class DataNode implements Identifiable<String> {
 			else if (refp[stop] > region.stop)
 				stop--;
 			NEXTKmer: for (int i = start + 1; i <= stop - kmerlen + 1; i++) {
-				List<Long> sizelist = new ArrayList<Long>();
 				// boolean discarded = false;
 				// for (int j = i - 1; j < i + kmerlen; j++) {
 				// boolean pass = false;
@@ -563,14 +573,12 @@ public class DataNode implements Identifiable<String> {
 				// continue NEXTKmer;
 				// }
 				for (int j = i; j < i + kmerlen; j++) {
-					if (getRefl(j) <= maxnosignalregion)
-						sizelist.add(getRefl(j));
-					else
+					if (refl[j] > maxnosignalregion)
 						// discarded = true;
 						continue NEXTKmer;
 				}
 				// if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
+				kmerlist.add(new Kmer(name, i, refl, i, kmerlen));
 			}
 		}
 		return kmerlist;
@@ -578,18 +586,16 @@ public class DataNode implements Identifiable<String> {
 
 	public List<Kmer> getErrorKmerWord(int kmerlen, int maxnosignalregion, int errorno) {
 		List<Kmer> kmerlist = new ArrayList<Kmer>();
+		long[] refl = getReflArray();
 		// Generate error-free kmer list
 		int finalkmerlen = kmerlen + errorno;
 		for (int i = 1; i < getTotalSegment() - finalkmerlen; i++) {
-			List<Long> sizelist = new ArrayList<Long>();
 			boolean discarded = false;
 			for (int j = i; j < i + finalkmerlen; j++)
-				if (getRefl(j) <= maxnosignalregion)
-					sizelist.add(getRefl(j));
-				else
+				if (refl[j] > maxnosignalregion)
 					discarded = true;
 			if (!discarded)
-				kmerlist.add(new Kmer(name, i, sizelist));
+				kmerlist.add(new Kmer(name, i, refl, i, finalkmerlen));
 		}
 		// Induce error
 		if (errorno == 0)
@@ -618,11 +624,8 @@ public class DataNode implements Identifiable<String> {
 			// }
 			// temporarily used for errorno = 1
 			for (Kmer kmer : kmerlist) {
-				for (int i = 0; i < finalkmerlen - 1; i++) {
-					List<Integer> errorposlist = new ArrayList<Integer>();
-					errorposlist.add(i);
-					errorkmerlist.add(new Kmer(kmer.source, kmer.pos, kmer.sizelist, errorposlist));
-				}
+				for (int i = 0; i < finalkmerlen - 1; i++)
+					errorkmerlist.add(new Kmer(kmer.source, kmer.pos, refl, kmer.pos, finalkmerlen, new int[] { i }));
 			}
 			return errorkmerlist;
 		}
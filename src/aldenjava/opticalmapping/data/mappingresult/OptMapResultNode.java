@@ -39,7 +39,6 @@ import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang.ArrayUtils;
-import org.apache.commons.lang.StringUtils;
 
 import aldenjava.common.SimpleLocation;
 import aldenjava.common.SimpleLongLocation;
@@ -116,23 +115,26 @@ public class OptMapResultNode {
 		boolean lastMatched = false;
 		int fragpos = subfragstart - mappedstrand;
 		int refpos = subrefstart - 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (lastMatched) {
-						relativeRefPos[fragpos] = refpos;
+					for (int i = 0; i < runlength; i++) {
+						if (lastMatched) {
+							relativeRefPos[fragpos] = refpos;
+						}
+						refpos++;
+						fragpos += mappedstrand;
+						lastMatched = true;
 					}
-					refpos++;
-					fragpos += mappedstrand;
-					lastMatched = true;
 					break;
 				case 'I':
 					// relative RefPos is still -1
-					fragpos += mappedstrand;
+					fragpos += mappedstrand * runlength;
 					lastMatched = false;
 					break;
 				case 'D':
-					refpos++;
+					refpos += runlength;
 					lastMatched = false;
 					break;
 				default:
@@ -154,61 +156,64 @@ public class OptMapResultNode {
 		}
 
 		DataNode ref = optrefmap.get(mappedRegion.ref);
-		String precigar = this.cigar.getPrecigar();
 		int lastrefpos = -1;
 		int lastfragpos = -1;
 		int currentrefpos = subrefstart;
 		int currentfragpos = subfragstart;
 		int lastrefstart = -1;
 		int lastfragstart = -1;
-		for (char c : precigar.toCharArray())
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (lastrefpos != -1) {
-						if (lastrefstart == -1) {
-							lastrefstart = lastrefpos;
-							lastfragstart = lastfragpos;
-						}
-						// start comparison
-						long reflen = ref.length(lastrefpos, currentrefpos - 1);
-						long fraglen;
-						if (mappedstrand == 1)
-							fraglen = parentFrag.length(lastfragpos, currentfragpos - mappedstrand);
-						else if (mappedstrand == -1)
-							fraglen = parentFrag.length(currentfragpos - mappedstrand, lastfragpos);
-						else
-							fraglen = 0;
+					for (int i = 0; i < runlength; i++) {
+						if (lastrefpos != -1) {
+							if (lastrefstart == -1) {
+								lastrefstart = lastrefpos;
+								lastfragstart = lastfragpos;
+							}
+							// start comparison
+							long reflen = ref.length(lastrefpos, currentrefpos - 1);
+							long fraglen;
+							if (mappedstrand == 1)
+								fraglen = parentFrag.length(lastfragpos, currentfragpos - mappedstrand);
+							else if (mappedstrand == -1)
+								fraglen = parentFrag.length(currentfragpos - mappedstrand, lastfragpos);
+							else
+								fraglen = 0;
 
-						boolean pass = (reflen * (1 - ear) - meas < fraglen && fraglen < reflen * (1 + ear) + meas);
-						if (!pass) {
-							if (lastfragstart != lastfragpos) {
-								resultList.add(this.getSubResult(ref, lastfragstart, lastfragpos - mappedstrand)); // the current one should not be included
+							boolean pass = (reflen * (1 - ear) - meas < fraglen && fraglen < reflen * (1 + ear) + meas);
+							if (!pass) {
+								if (lastfragstart != lastfragpos) {
+									resultList.add(this.getSubResult(ref, lastfragstart, lastfragpos - mappedstrand)); // the current one should not be included
 
-							}
-							lastrefstart = -1;
-							lastfragstart = -1;
-						} else {
-							if (pass && currentrefpos == subrefstop + 1) {
-								resultList.add(this.getSubResult(ref, lastfragstart, subfragstop)); // the current one should not be included
+								}
 								lastrefstart = -1;
 								lastfragstart = -1;
+							} else {
+								if (pass && currentrefpos == subrefstop + 1) {
+									resultList.add(this.getSubResult(ref, lastfragstart, subfragstop)); // the current one should not be included
+									lastrefstart = -1;
+									lastfragstart = -1;
+								}
 							}
 						}
+						lastrefpos = currentrefpos;
+						lastfragpos = currentfragpos;
+						currentfragpos += mappedstrand;
+						currentrefpos += 1;
 					}
-					lastrefpos = currentrefpos;
-					lastfragpos = currentfragpos;
-					currentfragpos += mappedstrand;
-					currentrefpos += 1;
 					break;
 				case 'I':
-					currentfragpos += mappedstrand;
+					currentfragpos += mappedstrand * runlength;
 					break;
 				case 'D':
-					currentrefpos += 1;
+					currentrefpos += runlength;
 					break;
 				default:
 					;
 			}
+		}
 		return resultList;
 	}
 
@@ -222,48 +227,50 @@ public class OptMapResultNode {
 		}
 
 		DataNode ref = optrefmap.get(mappedRegion.ref);
-		String precigar = this.cigar.getPrecigar();
 		int lastrefpos = -1;
 		int lastfragpos = -1;
 		int currentrefpos = subrefstart;
 		int currentfragpos = subfragstart;
 		int lastrefstart = -1;
 		int lastfragstart = -1;
-		for (char c : precigar.toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (lastrefpos != -1) {
-						if (lastrefstart == -1) {
-							lastrefstart = lastrefpos;
-							lastfragstart = lastfragpos;
-						}
-						GenomicPosNode currentRegion = new GenomicPosNode(ref.name, ref.refp[lastrefstart - 1], ref.refp[currentrefpos - 1]);
-
-						boolean pass = !(unwantedRegion.overlapSize(currentRegion) > 0);
-						if (!pass) {
-							if (lastfragstart != lastfragpos)
-								resultList.add(this.getSubResult(ref, lastfragstart, lastfragpos - mappedstrand));
-
-							lastrefstart = -1;
-							lastfragstart = -1;
-						} else {
-							if (pass && currentrefpos == subrefstop + 1) {
-								resultList.add(this.getSubResult(ref, lastfragstart, subfragstop));
+					for (int i = 0; i < runlength; i++) {
+						if (lastrefpos != -1) {
+							if (lastrefstart == -1) {
+								lastrefstart = lastrefpos;
+								lastfragstart = lastfragpos;
+							}
+							GenomicPosNode currentRegion = new GenomicPosNode(ref.name, ref.refp[lastrefstart - 1], ref.refp[currentrefpos - 1]);
+
+							boolean pass = !(unwantedRegion.overlapSize(currentRegion) > 0);
+							if (!pass) {
+								if (lastfragstart != lastfragpos)
+									resultList.add(this.getSubResult(ref, lastfragstart, lastfragpos - mappedstrand));
+
 								lastrefstart = -1;
 								lastfragstart = -1;
+							} else {
+								if (pass && currentrefpos == subrefstop + 1) {
+									resultList.add(this.getSubResult(ref, lastfragstart, subfragstop));
+									lastrefstart = -1;
+									lastfragstart = -1;
+								}
 							}
 						}
+						lastrefpos = currentrefpos;
+						lastfragpos = currentfragpos;
+						currentfragpos += mappedstrand;
+						currentrefpos += 1;
 					}
-					lastrefpos = currentrefpos;
-					lastfragpos = currentfragpos;
-					currentfragpos += mappedstrand;
-					currentrefpos += 1;
 					break;
 				case 'I':
-					currentfragpos += mappedstrand;
+					currentfragpos += mappedstrand * runlength;
 					break;
 				case 'D':
-					currentrefpos += 1;
+					currentrefpos += runlength;
 					break;
 				default:
 					;
@@ -331,19 +338,22 @@ public class OptMapResultNode {
 		int index = 0;
 		int fragpos = subfragstart - mappedstrand;
 		int refpos = subrefstart - 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					matchSignals[index++] = refpos; // need to be checked
-					refpos++;
-					fragpos += mappedstrand;
+					for (int i = 0; i < runlength; i++) {
+						matchSignals[index++] = refpos; // need to be checked
+						refpos++;
+						fragpos += mappedstrand;
+					}
 					break;
 				case 'I':
 					// relative RefPos is still -1
-					fragpos += mappedstrand;
+					fragpos += mappedstrand * runlength;
 					break;
 				case 'D':
-					refpos++;
+					refpos += runlength;
 					break;
 				default:
 					throw new RuntimeException(cigar + " character");
@@ -363,19 +373,22 @@ public class OptMapResultNode {
 		int index = 0;
 		int fragpos = subfragstart - mappedstrand;
 		int refpos = subrefstart - 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					matchSignals[index++] = fragpos; // need to be checked
-					refpos++;
-					fragpos += mappedstrand;
+					for (int i = 0; i < runlength; i++) {
+						matchSignals[index++] = fragpos; // need to be checked
+						refpos++;
+						fragpos += mappedstrand;
+					}
 					break;
 				case 'I':
 					// relative RefPos is still -1
-					fragpos += mappedstrand;
+					fragpos += mappedstrand * runlength;
 					break;
 				case 'D':
-					refpos++;
+					refpos += runlength;
 					break;
 				default:
 					throw new RuntimeException(cigar + " character");
@@ -409,20 +422,23 @@ public class OptMapResultNode {
 
 		if (mappedstrand == 1)
 			currFragSig -= 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (targetSig == currRefSig) {
-						return currFragSig;
+					for (int i = 0; i < runlength; i++) {
+						if (targetSig == currRefSig) {
+							return currFragSig;
+						}
+						currRefSig++;
+						currFragSig += mappedstrand;
 					}
-					currRefSig++;
-					currFragSig += mappedstrand;
 					break;
 				case 'I':
-					currFragSig += mappedstrand;
+					currFragSig += mappedstrand * runlength;
 					break;
 				case 'D':
-					currRefSig++;
+					currRefSig += runlength;
 					break;
 				default:
 					break;
@@ -437,28 +453,31 @@ public class OptMapResultNode {
 
 		if (mappedstrand == 1)
 			currFragSig -= 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (targetSig == currRefSig) {
-						if (mappedstrand == 1)
-							if (subfragstart > currFragSig)
+					for (int i = 0; i < runlength; i++) {
+						if (targetSig == currRefSig) {
+							if (mappedstrand == 1)
+								if (subfragstart > currFragSig)
+									return 0;
+								else
+									return length(subfragstart, currFragSig);
+							else if (currFragSig + 1 > subfragstart)
 								return 0;
 							else
-								return length(subfragstart, currFragSig);
-						else if (currFragSig + 1 > subfragstart)
-							return 0;
-						else
-							return length(currFragSig + 1, subfragstart);
+								return length(currFragSig + 1, subfragstart);
+						}
+						currRefSig++;
+						currFragSig += mappedstrand;
 					}
-					currRefSig++;
-					currFragSig += mappedstrand;
 					break;
 				case 'I':
-					currFragSig += mappedstrand;
+					currFragSig += mappedstrand * runlength;
 					break;
 				case 'D':
-					currRefSig++;
+					currRefSig += runlength;
 					break;
 				default:
 					break;
@@ -476,7 +495,6 @@ public class OptMapResultNode {
 	public OptMapResultNode getSubResult(DataNode ref, int fragstart, int fragstop) {
 		if ((mappedstrand == 1 && subfragstart <= fragstart && fragstart <= subfragstop && subfragstart <= fragstop && fragstop <= subfragstop)
 				|| (mappedstrand == -1 && subfragstop <= fragstart && fragstart <= subfragstart && subfragstop <= fragstop && fragstop <= subfragstart)) {
-			String precigar = this.cigar.getPrecigar();
 			int currentrefpos = subrefstart;
 			int currentfragpos = subfragstart;
 
@@ -485,59 +503,64 @@ public class OptMapResultNode {
 			int newrefstart = -1;
 			int newrefstop = -1;
 
-			StringBuilder storedPrecigar = new StringBuilder();
-			StringBuilder recentPrecigar = new StringBuilder();
+			Cigar newcigar = new Cigar();
 			boolean start = false;
 			boolean stop = false;
-			for (char c : precigar.toCharArray()) {
-				recentPrecigar.append(c);
+			for (int run = 0; run < cigar.getRunCount(); run++) {
+				char c = cigar.getRunOp(run);
+				int runlength = cigar.getRunLength(run);
 				switch (c) {
 
 					case 'M':
-						if (fragstart * mappedstrand <= currentfragpos * mappedstrand) // we need direction
-						{
-							start = true;
-							if (newrefstart == -1) {
-								newrefstart = currentrefpos;
-								newfragstart = currentfragpos;
+						for (int i = 0; i < runlength; i++) {
+							if (fragstart * mappedstrand <= currentfragpos * mappedstrand) // we need direction
+							{
+								start = true;
+								if (newrefstart == -1) {
+									newrefstart = currentrefpos;
+									newfragstart = currentfragpos;
+								}
 							}
-						}
-						if ((fragstop + mappedstrand) * mappedstrand <= currentfragpos * mappedstrand) {
-							stop = true;
-							if (fragstop + mappedstrand == currentfragpos) {
-								// if fragstop + mappedstrand < currentfragpos, some extra unmatches occur
-								storedPrecigar.append(c);
-								newrefstop = currentrefpos - 1;
+							if ((fragstop + mappedstrand) * mappedstrand <= currentfragpos * mappedstrand) {
+								stop = true;
+								if (fragstop + mappedstrand == currentfragpos) {
+									// if fragstop + mappedstrand < currentfragpos, some extra unmatches occur
+									newcigar.append(c);
+									newrefstop = currentrefpos - 1;
+									newfragstop = currentfragpos - mappedstrand;
+								} else
+									// Error occurs if you are using exact Match Position to draw sub result
+									;
+
+								break;
+							} else {
+								// continue to update stop position
+								newrefstop = currentrefpos - 1; // correct?
 								newfragstop = currentfragpos - mappedstrand;
-							} else
-								// Error occurs if you are using exact Match Position to draw sub result
-								;
-
-							break;
-						} else {
-							// continue to update stop position
-							newrefstop = currentrefpos - 1; // correct?
-							newfragstop = currentfragpos - mappedstrand;
+							}
+							currentfragpos += mappedstrand;
+							currentrefpos += 1;
+							if (start)
+								newcigar.append(c);
 						}
-						currentfragpos += mappedstrand;
-						currentrefpos += 1;
 						break;
 					case 'I':
-						currentfragpos += mappedstrand;
+						currentfragpos += mappedstrand * runlength;
+						if (start)
+							newcigar.append(c, runlength);
 						break;
 					case 'D':
-						currentrefpos += 1;
+						currentrefpos += runlength;
+						if (start)
+							newcigar.append(c, runlength);
 						break;
 					default:
-						;
+						if (start)
+							newcigar.append(c, runlength);
 				}
 				if (stop)
 					break;
-				if (start)
-					storedPrecigar.append(c);
 			}
-			Cigar newcigar;
-			newcigar = new Cigar(storedPrecigar.toString());
 			return (new OptMapResultNode(parentFrag, ref.getGenomicPos(newrefstart, newrefstop, true), mappedstrand, newrefstart, newrefstop, newfragstart, newfragstop, newcigar, -1, -1));
 		} else {
 			throw new IllegalArgumentException("Sub-result argument fails boundary checking. " + parentFrag == null ? "" : ("Result ID: " + parentFrag.name));
@@ -587,18 +610,21 @@ public class OptMapResultNode {
 
 		if (mappedstrand == 1)
 			currQuerySig -= 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					msps.add(new MatchingSignalPair(currRefSig, currQuerySig));
-					currRefSig++;
-					currQuerySig += mappedstrand;
+					for (int i = 0; i < runlength; i++) {
+						msps.add(new MatchingSignalPair(currRefSig, currQuerySig));
+						currRefSig++;
+						currQuerySig += mappedstrand;
+					}
 					break;
 				case 'I':
-					currQuerySig += mappedstrand;
+					currQuerySig += mappedstrand * runlength;
 					break;
 				case 'D':
-					currRefSig++;
+					currRefSig += runlength;
 					break;
 				default:
 					// Other characters are not supported
@@ -648,7 +674,6 @@ public class OptMapResultNode {
 		// pter points at every signal
 		int[] pter = new int[parentFrag.getTotalSegment() - 1];
 
-		String precigar = this.cigar.getPrecigar();
 		int currentrefpos = subrefstart;
 		int currentfragpos = subfragstart;
 
@@ -658,25 +683,30 @@ public class OptMapResultNode {
 		else
 			for (int i = subfragstart; i < parentFrag.getTotalSegment() - 1; i++)
 				pter[i] = -1;
-		for (char c : precigar.toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (mappedstrand == 1)
-						pter[currentfragpos - 1] = currentrefpos - 1;
-					else
-						pter[currentfragpos] = currentrefpos - 1;
-					currentfragpos += mappedstrand;
-					currentrefpos += 1;
+					for (int i = 0; i < runlength; i++) {
+						if (mappedstrand == 1)
+							pter[currentfragpos - 1] = currentrefpos - 1;
+						else
+							pter[currentfragpos] = currentrefpos - 1;
+						currentfragpos += mappedstrand;
+						currentrefpos += 1;
+					}
 					break;
 				case 'I':
-					if (mappedstrand == 1)
-						pter[currentfragpos - 1] = -1;
-					else
-						pter[currentfragpos] = -1;
-					currentfragpos += mappedstrand;
+					for (int i = 0; i < runlength; i++) {
+						if (mappedstrand == 1)
+							pter[currentfragpos - 1] = -1;
+						else
+							pter[currentfragpos] = -1;
+						currentfragpos += mappedstrand;
+					}
 					break;
 				case 'D':
-					currentrefpos += 1;
+					currentrefpos += runlength;
 					break;
 				default:
 					;
@@ -744,33 +774,29 @@ public class OptMapResultNode {
 	}
 
 	private void trimResult(int step) {
-		String precigar = cigar.getPrecigar();
 		if (step == 0) {
 			// updateMSP();
 			return;
-		} else if (step < 0) // right to left trim, according to ref
-			precigar = StringUtils.reverse(precigar);
-		if (precigar.length() == 1) // will trim to nothing, cannot trim anymore
+		}
+		if (cigar.length() <= 1) // will trim to nothing, cannot trim anymore
 			return;
-		String removed = precigar.substring(0, precigar.indexOf('M', 1));
-		;
-		int m = 0;
-		int i = 0;
-		int d = 0;
-		for (char c : removed.toCharArray())
-			switch (c) {
-				case 'M':
-					m++;
-					break;
-				case 'I':
-					i++;
-					break;
-				case 'D':
-					d++;
-					break;
-				default:
-					break;
-			}
+		Cigar oldcigar = cigar;
+		if (step < 0) // right to left trim, according to ref
+			oldcigar = cigar.getReverseCigar();
+		// the first operation is always removed, followed by all operations before the next match
+		Cigar removed = new Cigar();
+		int run = 0;
+		int remain = oldcigar.getRunLength(run) - 1;
+		removed.append(oldcigar.getRunOp(run));
+		while (remain == 0 || oldcigar.getRunOp(run) != 'M') {
+			removed.append(oldcigar.getRunOp(run), remain);
+			if (++run == oldcigar.getRunCount()) // no match remains, cannot trim anymore
+				return;
+			remain = oldcigar.getRunLength(run);
+		}
+		int m = removed.getMatch();
+		int i = removed.getFP();
+		int d = removed.getFN();
 		if (step > 0) {
 			subrefstart += m + d;
 			if (mappedstrand == -1)
@@ -784,10 +810,13 @@ public class OptMapResultNode {
 			else
 				subfragstop -= m + i; // + or -
 		}
-		String newprecigar = precigar.substring(precigar.indexOf('M', 1), precigar.length());
+		Cigar newcigar = new Cigar();
+		newcigar.append('M', remain);
+		for (run++; run < oldcigar.getRunCount(); run++)
+			newcigar.append(oldcigar.getRunOp(run), oldcigar.getRunLength(run));
 		if (step < 0)
-			newprecigar = StringUtils.reverse(newprecigar);
-		this.cigar = new Cigar(newprecigar);
+			newcigar.reverse();
+		this.cigar = newcigar;
 		trimResult(step - Math.abs(step) / step);
 	}
 
@@ -911,17 +940,20 @@ public class OptMapResultNode {
 		if (!mappedRegion.ref.equalsIgnoreCase(refname))
 			return false;
 		int currRefSig = subrefstart - 1;
-		for (char c : cigar.getPrecigar().toCharArray()) {
-			switch (c) {
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			int runlength = cigar.getRunLength(run);
+			switch (cigar.getRunOp(run)) {
 				case 'M':
-					if (targetSig == currRefSig)
-						return true;
-					currRefSig++;
+					for (int i = 0; i < runlength; i++) {
+						if (targetSig == currRefSig)
+							return true;
+						currRefSig++;
+					}
 					break;
 				case 'I':
 					break;
 				case 'D':
-					currRefSig++;
+					currRefSig += runlength;
 					break;
 				default:
 					break;
@@ -1046,12 +1078,25 @@ public class OptMapResultNode {
 		int direction = map.mappedstrand;
 		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
 
-		// String precigar = Cigar.convertpreCIGAR(map.cigar);
-		String precigar = map.cigar.getPrecigar();
-		// if (direction == -1)
-		// precigar = StringUtils.reverse(precigar);
-		String[] cigarlist = precigar.split("S");
-		for (int i = 1; i <= cigarlist.length; i += 2) {
+		// split the cigar at 'S'
+		List<Cigar> cigarlist = new ArrayList<Cigar>();
+		Cigar recentcigar = new Cigar();
+		for (int run = 0; run < map.cigar.getRunCount(); run++) {
+			char c = map.cigar.getRunOp(run);
+			if (c == 'S')
+				for (int k = 0; k < map.cigar.getRunLength(run); k++) {
+					cigarlist.add(recentcigar);
+					recentcigar = new Cigar();
+				}
+			else
+				recentcigar.append(c, map.cigar.getRunLength(run));
+		}
+		cigarlist.add(recentcigar);
+		// trailing empty segments are discarded as in String.split
+		if (cigarlist.size() > 1)
+			while (!cigarlist.isEmpty() && cigarlist.get(cigarlist.size() - 1).length() == 0)
+				cigarlist.remove(cigarlist.size() - 1);
+		for (int i = 1; i <= cigarlist.size(); i += 2) {
 			int subrefstart = -1;
 			int subrefstop = -1;
 			int subfragstart = -1;
@@ -1061,24 +1106,25 @@ public class OptMapResultNode {
 				subrefstart = map.subrefstart;
 				subfragstart = map.subfragstart;
 			} else {
-				StringBuilder concat = new StringBuilder();
-				for (int j = 0; j < i - 1; j++)
-					concat.append(cigarlist[j]);
-				String previousprecigar = concat.toString();
-				int match = Cigar.getCertainNumberFromPrecigar(previousprecigar, 'M');
-				int insert = Cigar.getCertainNumberFromPrecigar(previousprecigar, 'I');
-				int delete = Cigar.getCertainNumberFromPrecigar(previousprecigar, 'D');
+				int match = 0;
+				int insert = 0;
+				int delete = 0;
+				for (int j = 0; j < i - 1; j++) {
+					match += cigarlist.get(j).getMatch();
+					insert += cigarlist.get(j).getFP();
+					delete += cigarlist.get(j).getFN();
+				}
 				subfragstart = map.subfragstart + (match + insert) * direction;
 				subrefstart = map.subrefstart + match + delete;
 			}
-			String recentprecigar = cigarlist[i - 1];
-			if (i == cigarlist.length) {
+			Cigar newcigar = cigarlist.get(i - 1);
+			if (i == cigarlist.size()) {
 				subrefstop = map.subrefstop;
 				subfragstop = map.subfragstop;
 			} else {
-				int match = Cigar.getCertainNumberFromPrecigar(recentprecigar, 'M');
-				int insert = Cigar.getCertainNumberFromPrecigar(recentprecigar, 'I');
-				int delete = Cigar.getCertainNumberFromPrecigar(recentprecigar, 'D');
+				int match = newcigar.getMatch();
+				int insert = newcigar.getFP();
+				int delete = newcigar.getFN();
 				subfragstop = subfragstart + (match + insert - 1) * direction;
 				subrefstop = subrefstart + match + delete - 1;
 			}
@@ -1086,7 +1132,6 @@ public class OptMapResultNode {
 			long estimatestartpos = ref.refp[subrefstart - 1];
 			long estimatestoppos = ref.refp[subrefstop];
 
-			Cigar newcigar = new Cigar(recentprecigar);
 			fragmentmaplist.add(new OptMapResultNode(map.parentFrag, new GenomicPosNode(map.mappedRegion.ref, estimatestartpos, estimatestoppos), map.mappedstrand, subrefstart, subrefstop,
 					subfragstart, subfragstop, newcigar, map.mappedscore, -1));
 		}
@@ -149,6 +149,17 @@ public class OptMapResultWriter extends OMWriter<OptMapResultNode> {
 			write(resultlist.get(0));
 	}
 
+	/**
+	 * Writes a comment line, which starts with "#" and is skipped when the results are read
+	 * 
+	 * @param comment
+	 *            the comment without the leading "#"
+	 * @throws IOException
+	 */
+	public void writeComment(String comment) throws IOException {
+		bw.write("#" + comment + "\n");
+	}
+
 	private void writeOMA(OptMapResultNode result) throws IOException {
 		DataNode f = result.parentFrag;
 		String finfo = "";
@@ -33,8 +33,11 @@ package aldenjava.opticalmapping.mapper;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -102,6 +105,32 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 	 * Allow exact match. If not allowed, any alignment result showing <code>data</code> aligns to itself as a whole is removed. Note that the result is not removed if only part of <code>data</code> is aligned. Exact match should be set false for self-alignment and pairwise alignment.
 	 */
 	private boolean exactmatch = true;
+	/**
+	 * Whether the alignment and clustering of each <code>data</code> are split into fork-join subtasks
+	 * 
+	 * @see #setForkJoin(boolean)
+	 */
+	private boolean forkJoin = false;
+	/**
+	 * Work budget of each <code>data</code> in number of partial alignments. If exceeded, only the partial alignments with highest scores within the budget are post-processed. -1 for no limit
+	 * 
+	 * @see #setWorkBudget(int, long)
+	 */
+	private int maxPartialMap = -1;
+	/**
+	 * Work budget of each <code>data</code> in alignment time (ms). -1 for no limit
+	 * 
+	 * @see #setWorkBudget(int, long)
+	 */
+	private long maxAlignTime = -1;
+	/**
+	 * Whether the work budget is exceeded on the last <code>data</code>
+	 */
+	private boolean budgetExceeded = false;
+	/**
+	 * Start time (<code>System.nanoTime()</code>) of the alignment of the current <code>data</code>
+	 */
+	private long alignStart;
 
 	public TimeCounter tc = new TimeCounter(3, "Alignment Time", "Result PostProcessing Time", "Result Clustering Time");
 
@@ -119,18 +148,20 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 
 	public void setParameters(OptionSet options) throws IOException {
 		this.setParameters((int) options.valueOf("minsig"), (int) options.valueOf("minsize"), (boolean) options.valueOf("exactmatch"));
+		this.setWorkBudget((int) options.valueOf("maxpartialmap"), (long) options.valueOf("maxaligntime"));
 
 		pmj = new PostMapJoining(optrefmap);
 		pmj.setMode(options);
 		pmj.setParameters(options);
 
-		filter = new Filter();
+		filter = new Filter(optrefmap);
 		filter.setMode(options);
 		filter.setParameters(options);
 
 		rcm = new ResultClusterModule(optrefmap);
 		rcm.setMode(options);
 		rcm.setParameters(options);
+		setForkJoin((boolean) options.valueOf("forkjoin"));
 
 		if (options.has("optresin"))
 			targetRegionMap = OptMapResultNode.getPotentiallyMappedRegion(optrefmap, OptMapResultReader.readAllDataInList(options));
@@ -144,6 +175,111 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		this.exactmatch = exactmatch;
 	}
 
+	/**
+	 * Sets the work budget of each <code>data</code>. When the budget is exceeded, the <code>data</code> is handled by a cheaper strategy: only the partial alignments with
+	 * highest scores within <code>maxPartialMap</code> are kept, and the partial alignments are not joined by the clustering module. The budget is checked after
+	 * {@link #getResult(DataNode, List)} and after post-processing. Subclasses should also limit the work within <code>getResult</code> according to
+	 * {@link #getMaxPartialMap()} and {@link #getMaxAlignTime()}, and call {@link #reportBudgetExceeded()} if the limit is reached.
+	 * 
+	 * @param maxPartialMap
+	 *            maximum number of partial alignments; -1 for no limit
+	 * @param maxAlignTime
+	 *            maximum alignment time in ms; -1 for no limit
+	 * @see #isBudgetExceeded()
+	 */
+	public void setWorkBudget(int maxPartialMap, long maxAlignTime) {
+		this.maxPartialMap = maxPartialMap;
+		this.maxAlignTime = maxAlignTime;
+	}
+
+	/**
+	 * Sets whether the alignment and clustering of each <code>data</code> are split into fork-join subtasks. The subtasks only run in parallel if this mapper is called from a
+	 * <code>ForkJoinPool</code>; <code>MultiThreadMapper</code> uses a <code>ForkJoinPool</code> of its thread number for such mappers.
+	 * 
+	 * @param forkJoin
+	 *            <code>true</code> to use fork-join subtasks
+	 * @see #isForkJoin()
+	 */
+	public void setForkJoin(boolean forkJoin) {
+		this.forkJoin = forkJoin;
+		if (rcm != null)
+			rcm.setForkJoin(forkJoin);
+	}
+
+	/**
+	 * Returns whether the alignment and clustering of each <code>data</code> are split into fork-join subtasks
+	 * 
+	 * @return <code>true</code> if fork-join subtasks are used
+	 */
+	public boolean isForkJoin() {
+		return forkJoin;
+	}
+
+	/**
+	 * Returns the work budget of each <code>data</code> in number of partial alignments
+	 * 
+	 * @return maximum number of partial alignments; -1 for no limit
+	 * @see #setWorkBudget(int, long)
+	 */
+	public int getMaxPartialMap() {
+		return maxPartialMap;
+	}
+
+	/**
+	 * Returns the work budget of each <code>data</code> in alignment time
+	 * 
+	 * @return maximum alignment time in ms; -1 for no limit
+	 * @see #setWorkBudget(int, long)
+	 */
+	public long getMaxAlignTime() {
+		return maxAlignTime;
+	}
+
+	/**
+	 * Reports that the work budget is exceeded on the current <code>data</code> during {@link #getResult(DataNode, List)}, such that the cheaper strategy is used
+	 */
+	protected void reportBudgetExceeded() {
+		this.budgetExceeded = true;
+	}
+
+	/**
+	 * Returns <code>true</code> if the alignment time of the current <code>data</code> exceeds the work budget
+	 */
+	private boolean isAlignTimeExceeded() {
+		return maxAlignTime != -1 && System.nanoTime() - alignStart > maxAlignTime * 1000000L;
+	}
+
+	/**
+	 * Selects the partial alignments with highest scores. The selected partial alignments are kept in their original order.
+	 * 
+	 * @param alignmentList
+	 *            the partial alignments
+	 * @param n
+	 *            number of partial alignments to be selected
+	 * @return the selected partial alignments
+	 */
+	private static List<OptMapResultNode> selectTopPartialMap(List<OptMapResultNode> alignmentList, int n) {
+		List<OptMapResultNode> sortedList = new ArrayList<OptMapResultNode>(alignmentList);
+		Collections.sort(sortedList, Collections.reverseOrder(OptMapResultNode.mappedscorecomparator));
+		Set<OptMapResultNode> selected = Collections.newSetFromMap(new IdentityHashMap<OptMapResultNode, Boolean>());
+		selected.addAll(sortedList.subList(0, n));
+		List<OptMapResultNode> selectedList = new ArrayList<OptMapResultNode>(n);
+		for (OptMapResultNode result : alignmentList)
+			if (selected.contains(result))
+				selectedList.add(result);
+		return selectedList;
+	}
+
+	/**
+	 * Returns whether the work budget is exceeded on the last aligned <code>data</code>
+	 * 
+	 * @return <code>true</code> if the results of the last <code>data</code> are obtained by the fallback strategy
+	 * @see #setWorkBudget(int, long)
+	 */
+	public boolean isBudgetExceeded() {
+		return budgetExceeded;
+	}
+
 	/**
 	 * Set <code>data</code> for alignment
 	 * 
@@ -176,12 +312,16 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 	public abstract List<OptMapResultNode> getResult(DataNode data, List<GenomicPosNode> regionList);
 
 	public List<OptMapResultNode> processClusterAndConfidence(List<OptMapResultNode> fragmentmaplist) {
+		return processClusterAndConfidence(fragmentmaplist, false);
+	}
+
+	public List<OptMapResultNode> processClusterAndConfidence(List<OptMapResultNode> fragmentmaplist, boolean skipClustering) {
 		if (fragmentmaplist == null)
 			return null;
 		if (fragmentmaplist.isEmpty())
 			return new ArrayList<OptMapResultNode>();
 		List<OptMapResultNode> finalResult = new ArrayList<OptMapResultNode>();
-		List<ClusteredResult> crList = rcm.standardcluster(fragmentmaplist, true);
+		List<ClusteredResult> crList = rcm.standardcluster(fragmentmaplist, true, skipClustering);
 		// rcm.processConfidence(crList);
 
 		for (ClusteredResult cr : crList)
@@ -196,11 +336,14 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 	 * <li>filter and post map joining module</li>
 	 * <li>clustering module</li>
 	 * </ol>
+	 * If the work budget is exceeded after the first step, only the top partial alignments are kept and the clustering module is skipped.
 	 * 
 	 * @return Final results.
+	 * @see #setWorkBudget(int, long)
 	 */
 	@Override
 	public List<OptMapResultNode> call() {
+		budgetExceeded = false;
 		if (this.data == null)
 			return null;
 
@@ -208,6 +351,7 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 			return null;
 
 		tc.start(0);
+		alignStart = System.nanoTime();
 		
 		List<OptMapResultNode> alignmentList;
 		if (targetRegionMap == null)
@@ -222,6 +366,13 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		if (alignmentList == null)
 			return null;
 
+		if (maxPartialMap != -1 && alignmentList.size() > maxPartialMap) {
+			budgetExceeded = true;
+			alignmentList = selectTopPartialMap(alignmentList, maxPartialMap);
+		}
+		if (isAlignTimeExceeded())
+			budgetExceeded = true;
+
 		if (!exactmatch) {
 			for (int i = alignmentList.size() - 1; i >= 0; i--) {
 				OptMapResultNode result = alignmentList.get(i);
@@ -236,9 +387,11 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		if (filter != null)
 			alignmentList = filter.filter(alignmentList);
 		tc.end(1);
+		if (isAlignTimeExceeded())
+			budgetExceeded = true;
 
 		tc.start(2);
-		alignmentList = processClusterAndConfidence(alignmentList);
+		alignmentList = processClusterAndConfidence(alignmentList, budgetExceeded);
 		tc.stop(2);
 		return alignmentList;
 
@@ -248,10 +401,12 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		// mapper.setParameters(minsubfragment, scorecutoff, maxabovescoreitem,
 		// maxitem);
 		mapper.setParameters(minSignal, minSize, exactmatch);
+		mapper.setWorkBudget(maxPartialMap, maxAlignTime);
 		mapper.pmj = this.pmj.copy();
 		mapper.filter = this.filter.copy();
 		// mapper.joinmap = this.joinmap;
 		mapper.rcm = this.rcm.copy();
+		mapper.forkJoin = this.forkJoin;
 		mapper.targetRegionMap = this.targetRegionMap;
 	}
 
@@ -260,6 +415,9 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		parser.accepts("minsig", "Min signal of a molecule.").withOptionalArg().ofType(Integer.class).defaultsTo(5);
 		parser.accepts("minsize", "Min size of a molecule.").withOptionalArg().ofType(Integer.class).defaultsTo(50000);
 		parser.accepts("exactmatch", "Enable exact match. Disable this when performing self-alignment.").withOptionalArg().ofType(Boolean.class).defaultsTo(true);
+		parser.accepts("maxpartialmap", "Work budget of a molecule in partial alignments. If exceeded, seeds are capped to the most specific ones within the budget, only the top partial alignments within the budget are kept, clustering is skipped, and the molecule is flagged in the result file. -1: no limit").withOptionalArg().ofType(Integer.class).defaultsTo(-1);
+		parser.accepts("maxaligntime", "Work budget of a molecule in alignment time (ms). If exceeded, no more seeds are extended, clustering is skipped, and the molecule is flagged in the result file. -1: no limit").withOptionalArg().ofType(Long.class).defaultsTo((long) -1);
+		parser.accepts("forkjoin", "Split the alignment and clustering of each molecule into fork-join subtasks, such that very long queries are processed in parallel.").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
 
 		PostMapJoining.assignOptions(parser, level + 1);
 		Filter.assignOptions(parser, level + 1);
@@ -302,27 +460,19 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		tc.end(0);
 		DataNode fragment;
 		try {
-			while ((fragment = omdr.read()) != null) {
-				while (!multi.startNext(fragment)) {
-					MultiThreadResultNode multinode = multi.getNextResult();
-					List<OptMapResultNode> resultlist = multinode.alignmentResults;
-					if (resultlist == null || resultlist.size() == 0) {
-						resultlist = new ArrayList<OptMapResultNode>();
-						resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
-					}
-					omrw.write(resultlist);
-				}
-
+			if (multi.isPipeline()) {
+				multi.startPipeline(omdr);
+				MultiThreadResultNode multinode;
+				while ((multinode = multi.takePipelineResult()) != null)
+					writeResult(omrw, multinode);
 			}
-			while (multi.getStatus() != -1) {
-
-				MultiThreadResultNode multinode = multi.getNextResult();
-				List<OptMapResultNode> resultlist = multinode.alignmentResults;
-				if (resultlist == null || resultlist.size() == 0) {
-					resultlist = new ArrayList<OptMapResultNode>();
-					resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
+			else {
+				while ((fragment = omdr.read()) != null) {
+					while (!multi.startNext(fragment))
+						writeResult(omrw, multi.getNextResult());
 				}
-				omrw.write(resultlist);
+				while (multi.getStatus() != -1)
+					writeResult(omrw, multi.getNextResult());
 			}
 
 		} catch (InterruptedException | ExecutionException e) {
@@ -341,4 +491,15 @@ public abstract class Mapper implements Callable<List<OptMapResultNode>>, Copyab
 		tc.outputtime();
 
 	}
+
+	private static void writeResult(OptMapResultWriter omrw, MultiThreadResultNode multinode) throws IOException {
+		if (multinode.budgetExceeded)
+			omrw.writeComment("BudgetExceeded\t" + multinode.data.name);
+		List<OptMapResultNode> resultlist = multinode.alignmentResults;
+		if (resultlist == null || resultlist.size() == 0) {
+			resultlist = new ArrayList<OptMapResultNode>();
+			resultlist.add(OptMapResultNode.newBlankMapNode(multinode.data));
+		}
+		omrw.write(resultlist);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.clustermodule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aldenjava.common.SimpleLongLocation;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * Generates candidate pairs of partial alignments from the same molecule using {@link IntervalIndex} over the query and reference coordinates, such that pairs which can never be close or overlapping are not visited. For the alignment at index <code>i</code>, the candidates are indices <code>j &lt; i</code> in descending order, which is the visiting order of a plain nested loop. Candidates are a superset of the qualified pairs; exact criteria should still be checked by the caller.
+ * 
+ * @author Alden
+ *
+ */
+class CandidatePairFinder {
+
+	/**
+	 * Finds the candidate pairs which can be within <code>closeReference</code> on reference and within <code>closeFragment</code> on molecule, according to {@link OptMapResultNode#isRefClose(OptMapResultNode, long)} and {@link OptMapResultNode#isFragClose(OptMapResultNode, long)}. A negative distance disables the respective criteria.
+	 * 
+	 * @param mapList
+	 *            partial alignments of the same molecule
+	 * @param closeReference
+	 *            maximum distance on reference
+	 * @param closeFragment
+	 *            maximum distance on molecule
+	 * @return candidate indices for each partial alignment
+	 */
+	static int[][] findClosePairs(List<OptMapResultNode> mapList, long closeReference, long closeFragment) {
+		int[][] refCandidates = null;
+		if (closeReference >= 0)
+			refCandidates = findRefCandidates(mapList, closeReference, true);
+		int[][] fragCandidates = null;
+		if (closeFragment >= 0) {
+			long[] min = new long[mapList.size()];
+			long[] max = new long[mapList.size()];
+			for (int i = 0; i < mapList.size(); i++) {
+				OptMapResultNode map = mapList.get(i);
+				SimpleLongLocation loc;
+				if (map.mappedstrand == 1)
+					loc = new SimpleLongLocation(map.length(0, map.subfragstart - 1), map.length(0, map.subfragstop));
+				else if (map.mappedstrand == -1)
+					loc = new SimpleLongLocation(map.length(0, map.subfragstop - 1), map.length(0, map.subfragstart));
+				else
+					loc = new SimpleLongLocation(Long.MIN_VALUE / 2, Long.MAX_VALUE / 2); // Virtual map is never excluded here
+				min[i] = loc.min;
+				max[i] = loc.max;
+			}
+			fragCandidates = findCandidates(min, max, closeFragment);
+		}
+		if (refCandidates == null && fragCandidates == null)
+			return toDescending(allCandidates(mapList.size()));
+		if (refCandidates == null)
+			return toDescending(fragCandidates);
+		if (fragCandidates == null)
+			return toDescending(refCandidates);
+		int[][] candidates = new int[mapList.size()][];
+		for (int i = 0; i < mapList.size(); i++)
+			candidates[i] = intersect(refCandidates[i], fragCandidates[i]);
+		return toDescending(candidates);
+	}
+
+	/**
+	 * Finds the candidate pairs which can overlap on query or reference, according to {@link OptMapResultNode#overlap(OptMapResultNode)}.
+	 * 
+	 * @param mapList
+	 *            partial alignments of the same molecule
+	 * @return candidate indices for each partial alignment
+	 */
+	static int[][] findOverlapPairs(List<OptMapResultNode> mapList) {
+		// overlapsize > -1 on signal index is equivalent to a gap of 1
+		long[] min = new long[mapList.size()];
+		long[] max = new long[mapList.size()];
+		for (int i = 0; i < mapList.size(); i++) {
+			OptMapResultNode map = mapList.get(i);
+			min[i] = Math.min(map.subfragstart, map.subfragstop);
+			max[i] = Math.max(map.subfragstart, map.subfragstop);
+		}
+		int[][] queryCandidates = findCandidates(min, max, 1);
+		int[][] refCandidates = findRefCandidates(mapList, 1, false);
+		int[][] candidates = new int[mapList.size()][];
+		for (int i = 0; i < mapList.size(); i++)
+			candidates[i] = union(queryCandidates[i], refCandidates[i]);
+		return toDescending(candidates);
+	}
+
+	// Ascending candidates j < i on the same reference. The mapped region is used if useRegion is true; otherwise the subref signal indices are used
+	private static int[][] findRefCandidates(List<OptMapResultNode> mapList, long gap, boolean useRegion) {
+		Map<String, List<Integer>> refGroups = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < mapList.size(); i++) {
+			String ref = mapList.get(i).mappedRegion.ref;
+			if (!refGroups.containsKey(ref))
+				refGroups.put(ref, new ArrayList<Integer>());
+			refGroups.get(ref).add(i);
+		}
+		int[][] candidates = new int[mapList.size()][];
+		for (List<Integer> group : refGroups.values()) {
+			long[] min = new long[group.size()];
+			long[] max = new long[group.size()];
+			for (int k = 0; k < group.size(); k++) {
+				OptMapResultNode map = mapList.get(group.get(k));
+				SimpleLongLocation loc = useRegion ? map.mappedRegion.getLoc() : new SimpleLongLocation(map.subrefstart, map.subrefstop);
+				min[k] = loc.min;
+				max[k] = loc.max;
+			}
+			int[][] groupCandidates = findCandidates(min, max, gap);
+			// Group members are in ascending order of the original index
+			for (int k = 0; k < group.size(); k++) {
+				int[] c = groupCandidates[k];
+				for (int x = 0; x < c.length; x++)
+					c[x] = group.get(c[x]);
+				candidates[group.get(k)] = c;
+			}
+		}
+		return candidates;
+	}
+
+	// Ascending candidates j < i which are within gap to i
+	private static int[][] findCandidates(long[] min, long[] max, long gap) {
+		IntervalIndex index = new IntervalIndex(min, max);
+		int[][] candidates = new int[min.length][];
+		for (int i = 0; i < min.length; i++) {
+			int[] close = index.queryClose(min[i], max[i], gap);
+			int n = 0;
+			while (n < close.length && close[n] < i)
+				n++;
+			candidates[i] = Arrays.copyOf(close, n);
+		}
+		return candidates;
+	}
+
+	private static int[][] allCandidates(int size) {
+		int[][] candidates = new int[size][];
+		for (int i = 0; i < size; i++) {
+			candidates[i] = new int[i];
+			for (int j = 0; j < i; j++)
+				candidates[i][j] = j;
+		}
+		return candidates;
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		int x = 0;
+		int y = 0;
+		while (x < a.length && y < b.length) {
+			if (a[x] < b[y])
+				x++;
+			else if (a[x] > b[y])
+				y++;
+			else {
+				result[n++] = a[x];
+				x++;
+				y++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static int[] union(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int n = 0;
+		int x = 0;
+		int y = 0;
+		while (x < a.length || y < b.length) {
+			if (y == b.length || (x < a.length && a[x] < b[y]))
+				result[n++] = a[x++];
+			else if (x == a.length || b[y] < a[x])
+				result[n++] = b[y++];
+			else {
+				result[n++] = a[x];
+				x++;
+				y++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static int[][] toDescending(int[][] candidates) {
+		for (int[] c : candidates)
+			for (int x = 0, y = c.length - 1; x < y; x++, y--) {
+				int tmp = c[x];
+				c[x] = c[y];
+				c[y] = tmp;
+			}
+		return candidates;
+	}
+}
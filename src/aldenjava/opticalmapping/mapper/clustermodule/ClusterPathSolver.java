@@ -0,0 +1,135 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.clustermodule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * Solves the best path of a list of <code>ClusterPathNode</code> in a single pass. Nodes are numbered by their order in the list, and the edges from each partial map to the nodes starting at that partial map are stored in compressed sparse row arrays. Links and the selected path are the same as linking paths by the first maps and then scanning for the best end node.
+ * 
+ * @author Alden
+ *
+ */
+class ClusterPathSolver {
+
+	/**
+	 * Links the nodes and returns the best path. The nodes must be ordered such that the previous path of a node always precedes it, as produced by the path building in <code>ResultClusterModule</code>.
+	 * 
+	 * @param clusterPathList
+	 *            all nodes of a group
+	 * @param vmProcessor
+	 *            the scoring scheme
+	 * @param minMatch
+	 *            minimum match of a trimmed map
+	 * @return the nodes of the best path, from the start to the end
+	 */
+	static List<ClusterPathNode> solve(List<ClusterPathNode> clusterPathList, VirtualMapProcessor vmProcessor, int minMatch) {
+		int n = clusterPathList.size();
+		ClusterPathNode[] nodes = clusterPathList.toArray(new ClusterPathNode[n]);
+
+		// Number the partial maps
+		Map<OptMapResultNode, Integer> mapID = new IdentityHashMap<OptMapResultNode, Integer>();
+		int[] firstID = new int[n];
+		int[] secondID = new int[n];
+		for (int a = 0; a < n; a++) {
+			firstID[a] = numberMap(mapID, nodes[a].firstMap);
+			secondID[a] = numberMap(mapID, nodes[a].secondMap);
+		}
+
+		// Nodes grouped by the first map, in the order of the list
+		int maps = mapID.size();
+		int[] groupStart = new int[maps + 1];
+		for (int a = 0; a < n; a++)
+			if (firstID[a] >= 0)
+				groupStart[firstID[a] + 1]++;
+		for (int m = 0; m < maps; m++)
+			groupStart[m + 1] += groupStart[m];
+		int[] groupNode = new int[groupStart[maps]];
+		int[] groupPointer = new int[maps];
+		System.arraycopy(groupStart, 0, groupPointer, 0, maps);
+		for (int a = 0; a < n; a++)
+			if (firstID[a] >= 0)
+				groupNode[groupPointer[firstID[a]]++] = a;
+		System.arraycopy(groupStart, 0, groupPointer, 0, maps);
+
+		int bestEnd = -1;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int a = 0; a < n; a++) {
+			ClusterPathNode cp1 = nodes[a];
+			if ((cp1.previousPath == null && cp1.firstMap == null) || (cp1.previousPath != null)) {
+				cp1.updateScore(vmProcessor);
+				int s = secondID[a];
+				if (s >= 0) {
+					// Only nodes after the current node can be linked
+					while (groupPointer[s] < groupStart[s + 1] && groupNode[groupPointer[s]] <= a)
+						groupPointer[s]++;
+					for (int e = groupPointer[s]; e < groupStart[s + 1]; e++) {
+						ClusterPathNode cp2 = nodes[groupNode[e]];
+						if (cp1.canLink(cp2, minMatch))
+							cp2.assignPreviousPath(cp1);
+					}
+				}
+			}
+			// The score is final once the node is visited
+			if (cp1.isEnd() && cp1.getScore() >= bestScore) {
+				bestEnd = a;
+				bestScore = cp1.getScore();
+			}
+		}
+
+		// Trace back the path
+		List<ClusterPathNode> bestPath = new ArrayList<ClusterPathNode>();
+		ClusterPathNode recentPath = bestEnd == -1 ? null : nodes[bestEnd];
+		while (recentPath != null) {
+			bestPath.add(recentPath);
+			recentPath = recentPath.previousPath;
+		}
+		Collections.reverse(bestPath);
+		return bestPath;
+	}
+
+	private static int numberMap(Map<OptMapResultNode, Integer> mapID, OptMapResultNode map) {
+		if (map == null)
+			return -1;
+		Integer id = mapID.get(map);
+		if (id == null) {
+			id = mapID.size();
+			mapID.put(map, id);
+		}
+		return id;
+	}
+}
@@ -0,0 +1,145 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.clustermodule;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A static index of closed intervals supporting queries of all intervals overlapping a query interval. Intervals are sorted by their start, and a segment tree stores the maximum end of each range of the sorted intervals. A query only descends into ranges whose starts are not beyond the query end and whose maximum end reaches the query start, such that the cost depends on the number of reported intervals rather than the total number of intervals.
+ * 
+ * @author Alden
+ *
+ */
+class IntervalIndex {
+	private final int size;
+	private final int leafstart;
+	private final long[] sortedmin;
+	private final int[] sortedid;
+	private final long[] treemax;
+	private final int[] buffer;
+	private int found;
+
+	/**
+	 * Constructs an index of intervals. The interval <code>i</code> is <code>[min[i], max[i]]</code>, and is reported as <code>i</code> in queries.
+	 * 
+	 * @param min
+	 *            starts of the intervals
+	 * @param max
+	 *            ends of the intervals
+	 */
+	IntervalIndex(final long[] min, final long[] max) {
+		if (min.length != max.length)
+			throw new IllegalArgumentException("Inconsistent number of interval starts and ends.");
+		size = min.length;
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Long.compare(min[i1], min[i2]);
+			}
+		});
+		int leaves = 1;
+		while (leaves < size)
+			leaves <<= 1;
+		leafstart = leaves;
+		sortedmin = new long[size];
+		sortedid = new int[size];
+		treemax = new long[leaves * 2];
+		Arrays.fill(treemax, Long.MIN_VALUE);
+		for (int i = 0; i < size; i++) {
+			sortedid[i] = order[i];
+			sortedmin[i] = min[order[i]];
+			treemax[leaves + i] = max[order[i]];
+		}
+		for (int node = leaves - 1; node >= 1; node--)
+			treemax[node] = Math.max(treemax[node * 2], treemax[node * 2 + 1]);
+		buffer = new int[size];
+	}
+
+	/**
+	 * Returns the identifiers of all intervals overlapping <code>[min, max]</code>, in ascending order.
+	 * 
+	 * @param min
+	 *            start of the query interval
+	 * @param max
+	 *            end of the query interval
+	 * @return identifiers of the overlapping intervals
+	 */
+	int[] query(long min, long max) {
+		// Only the sorted intervals [0, bound) start before or at max
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sortedmin[mid] <= max)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		found = 0;
+		if (low > 0)
+			collect(1, 0, leafstart, low, min);
+		int[] result = Arrays.copyOf(buffer, found);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the identifiers of all intervals within <code>gap</code> to <code>[min, max]</code>, in ascending order. The criteria is the same as {@link aldenjava.common.SimpleLongLocation#overlap(aldenjava.common.SimpleLongLocation, long)}.
+	 * 
+	 * @param min
+	 *            start of the query interval
+	 * @param max
+	 *            end of the query interval
+	 * @param gap
+	 *            the allowed gap between intervals
+	 * @return identifiers of the close intervals
+	 */
+	int[] queryClose(long min, long max, long gap) {
+		return query(min - gap, max + gap);
+	}
+
+	private void collect(int node, int nodestart, int nodestop, int bound, long min) {
+		if (nodestart >= bound || treemax[node] < min)
+			return;
+		if (node >= leafstart) {
+			buffer[found++] = sortedid[node - leafstart];
+			return;
+		}
+		int mid = (nodestart + nodestop) >>> 1;
+		collect(node * 2, nodestart, mid, bound, min);
+		collect(node * 2 + 1, mid, nodestop, bound, min);
+	}
+
+}
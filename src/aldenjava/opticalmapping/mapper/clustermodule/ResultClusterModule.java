@@ -31,10 +31,13 @@
 package aldenjava.opticalmapping.mapper.clustermodule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import joptsimple.OptionSet;
 import aldenjava.common.SimpleLongLocation;
@@ -78,6 +81,10 @@ public class ResultClusterModule implements SelectableMode{
 	private int confItemCount = 10;
 	private boolean overlapCluster = true;
 	private int maxClusterItem = -1;
+	
+	private boolean fastTrim = false;
+	private boolean dagPath = false;
+	private boolean forkJoin = false;
 		
 	
 	public ResultClusterModule(LinkedHashMap<String, DataNode> optrefmap)
@@ -126,6 +133,8 @@ public class ResultClusterModule implements SelectableMode{
 				(boolean) options.valueOf("overlapcluster"),
 				(int) options.valueOf("maxclusteritem")
 				);
+		this.setFastTrim((boolean) options.valueOf("fasttrim"));
+		this.setDAGPath((boolean) options.valueOf("dagpath"));
 		
 				
 
@@ -164,6 +173,31 @@ public class ResultClusterModule implements SelectableMode{
 		this.maxClusterItem = maxClusterItem;
 	}
 	
+	/**
+	 * Sets whether trimming in path building uses {@link TrimTable}, where trimmed alignments are derived from offsets on the cigar runs instead of repeatedly copying and rescoring the alignments. The clustering results are the same.
+	 * @param fastTrim <code>true</code> to use trim tables
+	 */
+	public void setFastTrim(boolean fastTrim) {
+		this.fastTrim = fastTrim;
+	}
+	
+	/**
+	 * Sets whether the paths are linked and the best path is selected by {@link ClusterPathSolver}, which uses array-based edges and a single dynamic programming pass. The clustering results are the same.
+	 * @param dagPath <code>true</code> to use the array-based path solver
+	 */
+	public void setDAGPath(boolean dagPath) {
+		this.dagPath = dagPath;
+	}
+	
+	/**
+	 * Sets whether the result groups are clustered in parallel as fork-join subtasks. The subtasks run in the <code>ForkJoinPool</code> of the calling thread, such as the pool of 
+	 * <code>MultiThreadMapper</code> in fork-join mode; the groups are clustered sequentially if the calling thread is not in any pool. The clustering results are the same.
+	 * @param forkJoin <code>true</code> to cluster the result groups in parallel
+	 */
+	public void setForkJoin(boolean forkJoin) {
+		this.forkJoin = forkJoin;
+	}
+	
 	/**
 	 * Group the partial maps
 	 * 
@@ -341,6 +375,79 @@ public class ResultClusterModule implements SelectableMode{
 			return TrimResult.SuccessfulTrimResult(trim1Result[bestTrim1], trim2Result[bestTrim2]);
 	}
 	
+	/**
+	 * Creates a <code>TrimTable</code> of a partial map for trimming at the side joining to another partial map.
+	 * @param map the partial map
+	 * @param direction -1 if the partial map is the first map, 1 if the partial map is the second map
+	 * @return the trim table
+	 */
+	private TrimTable newTrimTable(OptMapResultNode map, int direction) {
+		return new TrimTable(map, direction * map.mappedstrand, optrefmap.get(map.mappedRegion.ref), maxTrim, match, fpp, fnp);
+	}
+	
+	/**
+	 * Same as {@link #trimOverlap(LinkedHashMap, OptMapResultNode[], OptMapResultNode[], PathBuilderFilter, VirtualMapProcessor)}, but the trimmed maps are obtained from trim tables, 
+	 * the penalty is calculated once for each trim pair, and the trim pairs no longer to be done are recorded in <code>trimBlock</code>
+	 * 
+	 * @param trim1Table
+	 * @param trim2Table
+	 * @param pbFilter
+	 * @param vmProcessor
+	 * @param trimBlock scratch of size at least <code>maxTrim + 1</code>: a trim pair (trim1, trim2) is no longer done if trim2 >= trimBlock[trim1]
+	 * @return
+	 */
+	private TrimResult trimOverlap(TrimTable trim1Table, TrimTable trim2Table, PathBuilderFilter pbFilter, VirtualMapProcessor vmProcessor, int[] trimBlock) {
+		OptMapResultNode map1 = trim1Table.get(0);
+		OptMapResultNode map2 = trim2Table.get(0);
+		int penalty = vmProcessor.calcBasicPenalty(map1, map2);
+		double bestscore = Double.NEGATIVE_INFINITY;
+		int bestTrim1 = -1;
+		int bestTrim2 = -1;
+		Arrays.fill(trimBlock, 0, maxTrim + 1, maxTrim + 1);
+		for (int trimmed = 0; trimmed <= maxTrim; trimmed++)
+		{
+			for (int trim1 = 0; trim1 <= trimmed; trim1++) {
+				int trim2 = trimmed - trim1;
+				if (trim2 >= trimBlock[trim1]) // this trim pair should no longer be done
+					continue;
+				if ((map1.cigar.getMatch() - trim1 >= minMatch) && (map2.cigar.getMatch() - trim2 >= minMatch)) {
+					OptMapResultNode tresult1 = trim1Table.get(trim1);
+					OptMapResultNode tresult2 = trim2Table.get(trim2);
+					
+					boolean withinTrimear = Math.abs(tresult1.getMapScale() - 1) < trimear && Math.abs(tresult2.getMapScale() - 1) < trimear;
+					boolean removeLaterTrim = false;
+				
+					if (pbFilter.checkPass(tresult1, tresult2)) {
+						if (withinTrimear && !tresult1.overlap(tresult2)) {
+							double score = tresult1.mappedscore + tresult2.mappedscore - vmProcessor.calcPenalty(tresult1, tresult2);
+							if (score > bestscore) {
+								bestscore = score;
+								bestTrim1 = trim1;
+								bestTrim2 = trim2;
+							}
+							removeLaterTrim = true;
+						}
+						else
+							if (withinTrimear && tresult1.mappedscore + tresult2.mappedscore - penalty < bestscore) // We could not calcPenalty directly when tresult1.overlap(tresult2)
+								removeLaterTrim = true;
+					}
+					else
+						removeLaterTrim = true;
+					
+					if (removeLaterTrim)
+						for (int i = trim1; i <= maxTrim; i++)
+							if (trimBlock[i] > trim2)
+								trimBlock[i] = trim2;
+				}
+			}
+		}
+
+		if (bestTrim1 == -1)
+			return TrimResult.FailedTrimResult();
+		else
+			return TrimResult.SuccessfulTrimResult(trim1Table.getTrimmedResult(bestTrim1), trim2Table.getTrimmedResult(bestTrim2));
+	}
+	
 	/**
 	 * Build paths for two partial maps if they have the following properties
 	 * 1. No overlap (passing trimOverlap)
@@ -358,11 +465,23 @@ public class ResultClusterModule implements SelectableMode{
 		
 		Collections.sort(groupedMap, OptMapResultNode.subfragstartstopcomparator);
 		List<ClusterPathNode> clusterPathList = new ArrayList<ClusterPathNode>();
-		OptMapResultNode[][] trim1Results = new OptMapResultNode[groupedMap.size()][maxTrim + 1];
-		OptMapResultNode[][] trim2Results = new OptMapResultNode[groupedMap.size()][maxTrim + 1];
-		for (int i = 0; i < groupedMap.size(); i++) {
-			trim1Results[i][0] = groupedMap.get(i);
-			trim2Results[i][0] = groupedMap.get(i);
+		OptMapResultNode[][] trim1Results = null;
+		OptMapResultNode[][] trim2Results = null;
+		TrimTable[] trim1Tables = null;
+		TrimTable[] trim2Tables = null;
+		int[] trimBlock = null;
+		if (fastTrim) {
+			trim1Tables = new TrimTable[groupedMap.size()];
+			trim2Tables = new TrimTable[groupedMap.size()];
+			trimBlock = new int[maxTrim + 1];
+		}
+		else {
+			trim1Results = new OptMapResultNode[groupedMap.size()][maxTrim + 1];
+			trim2Results = new OptMapResultNode[groupedMap.size()][maxTrim + 1];
+			for (int i = 0; i < groupedMap.size(); i++) {
+				trim1Results[i][0] = groupedMap.get(i);
+				trim2Results[i][0] = groupedMap.get(i);
+			}
 		}
 		
 		// head of the path
@@ -370,11 +489,21 @@ public class ResultClusterModule implements SelectableMode{
 			clusterPathList.add(new ClusterPathNode(null, map, 0, 0, null, map));
 			
 		// start building paths for map to map
+		// only pairs close enough on reference and fragment are visited, in the order of j = i - 1 to 0
+		int[][] candidates = CandidatePairFinder.findClosePairs(groupedMap, pbFilter.closeReference, pbFilter.closeFragment);
 		for (int i = 0; i < groupedMap.size(); i++)	{
-			int j = i - 1;
-			while (j >= 0) {
+			for (int j : candidates[i]) {
 				if (pbFilter.checkPass(groupedMap.get(j), groupedMap.get(i)))	{
-					TrimResult trimResult = trimOverlap(optrefmap, trim1Results[j], trim2Results[i], pbFilter, vmProcessor);
+					TrimResult trimResult;
+					if (fastTrim) {
+						if (trim1Tables[j] == null)
+							trim1Tables[j] = newTrimTable(groupedMap.get(j), -1);
+						if (trim2Tables[i] == null)
+							trim2Tables[i] = newTrimTable(groupedMap.get(i), 1);
+						trimResult = trimOverlap(trim1Tables[j], trim2Tables[i], pbFilter, vmProcessor, trimBlock);
+					}
+					else
+						trimResult = trimOverlap(optrefmap, trim1Results[j], trim2Results[i], pbFilter, vmProcessor);
 					if  (trimResult.successful) {
 						OptMapResultNode map1 = trimResult.result1;
 						OptMapResultNode map2 = trimResult.result2;
@@ -384,7 +513,6 @@ public class ResultClusterModule implements SelectableMode{
 						clusterPathList.add(cp);
 					}
 				}
-				j--;
 			}
 		}
 		// tail of the path
@@ -573,20 +701,46 @@ public class ResultClusterModule implements SelectableMode{
 		
 		
 		
-		List<ClusteredResult> clusteredResultList = new ArrayList<ClusteredResult>();
-		
 		// Grouping close results to be 1. clustered effectively 2. output one clustered result per group
 		List<List<OptMapResultNode>> groupedMapList = group(mapList, pbFilter.sameStrand, pbFilter.closeReference, pbFilter.closeFragment);
 		
+		if (forkJoin && groupedMapList.size() > 1 && ForkJoinTask.inForkJoinPool())
+			return new GroupClusterTask(groupedMapList, 0, groupedMapList.size(), pbFilter, vmProcessor).invoke();
+		
 		// In each result group
+		List<ClusteredResult> clusteredResultList = new ArrayList<ClusteredResult>();
 		for (List<OptMapResultNode> groupedMap : groupedMapList) {
-			// Build a path whenever the results can be joined
-			// Please see ClusterPathNode for details
-			List<ClusterPathNode> clusterPathList = buildPath(groupedMap, pbFilter, vmProcessor);
+			ClusteredResult cr = clusterGroup(groupedMap, pbFilter, vmProcessor);
+			if (cr != null)
+				clusteredResultList.add(cr);
+		}
+		return clusteredResultList;
+	}
+	
+	/**
+	 * Clusters the results in one group
+	 * 
+	 * @param groupedMap
+	 * @param pbFilter
+	 * @param vmProcessor
+	 * @return the clustered result, or <code>null</code> if no result remains after clustering
+	 */
+	private ClusteredResult clusterGroup(List<OptMapResultNode> groupedMap, PathBuilderFilter pbFilter, VirtualMapProcessor vmProcessor)
+	{
+		// Build a path whenever the results can be joined
+		// Please see ClusterPathNode for details
+		List<ClusterPathNode> clusterPathList = buildPath(groupedMap, pbFilter, vmProcessor);
+		List<ClusterPathNode> bestPath;
+		if (dagPath)
+			bestPath = ClusterPathSolver.solve(clusterPathList, vmProcessor, minMatch);
+		else {
 			// Link the paths
 			linkPath(clusterPathList, vmProcessor);
-			// Get the best path and extract the final result maps
-			List<OptMapResultNode> clusteredGroupMap = convertPathToMapList(getBestPath(clusterPathList), vmProcessor);
+			// Get the best path
+			bestPath = getBestPath(clusterPathList);
+		}
+		// Extract the final result maps
+		List<OptMapResultNode> clusteredGroupMap = convertPathToMapList(bestPath, vmProcessor);
 //			if (false)			
 //			{
 //				for (ClusterPathNode cp : clusterPathList) {
@@ -609,43 +763,54 @@ public class ResultClusterModule implements SelectableMode{
 //						System.out.println(result);
 //				}
 //			}
-			ClusteredResult cr = new ClusteredResult();
-			// We want to retain the original alignments
-			List<OptMapResultNode> expandedGroupedMap = new ArrayList<OptMapResultNode>(); // Saving the original results
-			for (OptMapResultNode map : groupedMap)
-				expandedGroupedMap.addAll(map.getRealMap());
+		ClusteredResult cr = new ClusteredResult();
+		// We want to retain the original alignments
+		List<OptMapResultNode> expandedGroupedMap = new ArrayList<OptMapResultNode>(); // Saving the original results
+		for (OptMapResultNode map : groupedMap)
+			expandedGroupedMap.addAll(map.getRealMap());
 
-			// We want to import the modified alignments
-			List<OptMapResultNode> expandedClusterGroupMap = new ArrayList<OptMapResultNode>(); // Saving the updated results
-			for (OptMapResultNode map : clusteredGroupMap)
-				expandedClusterGroupMap.addAll(map.getRealMap());
-			
+		// We want to import the modified alignments
+		List<OptMapResultNode> expandedClusterGroupMap = new ArrayList<OptMapResultNode>(); // Saving the updated results
+		for (OptMapResultNode map : clusteredGroupMap)
+			expandedClusterGroupMap.addAll(map.getRealMap());
+		
 //			checkDirectLink(expandedClusterGroupMap, vmProcessor);
-			cr.importUpdatedResult(expandedClusterGroupMap);
-			if (cr.updatedResult.size() > 0) {
-				
-				cr.process(vmProcessor);
-				clusteredResultList.add(cr);
-			}
+		cr.importUpdatedResult(expandedClusterGroupMap);
+		if (cr.updatedResult.size() > 0) {
 			
+			cr.process(vmProcessor);
+			return cr;
 		}
-		return clusteredResultList;
+		return null;
 	}
 	
 	private void removeOverlap(List<ClusteredResult> clusteredResultList)
 	{
 		Collections.sort(clusteredResultList);
 		Collections.reverse(clusteredResultList);
-		for (int i = clusteredResultList.size() - 1; i >= 1; i--) {
-			for (int j = i - 1; j >= 0; j--)
-				for (OptMapResultNode result1 : clusteredResultList.get(i).updatedResult)
-					for (OptMapResultNode result2 : clusteredResultList.get(j).updatedResult)
-						if (result1.overlap(result2)) {
-							clusteredResultList.remove(i);
-							break;
-						}
+		// A cluster is removed if any of its results overlaps a result in a better cluster
+		List<OptMapResultNode> resultList = new ArrayList<OptMapResultNode>();
+		List<Integer> ownerList = new ArrayList<Integer>();
+		for (int i = 0; i < clusteredResultList.size(); i++)
+			for (OptMapResultNode result : clusteredResultList.get(i).updatedResult) {
+				resultList.add(result);
+				ownerList.add(i);
+			}
+		int[][] candidates = CandidatePairFinder.findOverlapPairs(resultList);
+		boolean[] overlapped = new boolean[clusteredResultList.size()];
+		for (int r1 = 0; r1 < resultList.size(); r1++) {
+			int i = ownerList.get(r1);
+			if (overlapped[i])
+				continue;
+			for (int r2 : candidates[r1])
+				if (ownerList.get(r2) < i && resultList.get(r1).overlap(resultList.get(r2))) {
+					overlapped[i] = true;
+					break;
+				}
 		}
-					
+		for (int i = clusteredResultList.size() - 1; i >= 1; i--)
+			if (overlapped[i])
+				clusteredResultList.remove(i);
 	}
 	/*
 	@Deprecated
@@ -694,40 +859,43 @@ public class ResultClusterModule implements SelectableMode{
 				int lastfragpos = -1;
 				int lastrefpos = -1;
 				int matchedRegion = 0;
-				for (char c : result.cigar.getPrecigar().toCharArray())
+				for (int run = 0; run < result.cigar.getRunCount(); run++)
 				{
-					switch (c)
+					switch (result.cigar.getRunOp(run))
 					{
 						 case 'M':						 
-							 
-							 if (lastrefpos != -1)
+							 for (int i = 0; i < result.cigar.getRunLength(run); i++)
 							 {
 								 
-								 long fraglen;
-								 if (direction == 1) 
-									 fraglen = result.parentFrag.length(lastfragpos, fragpos);
-								 else
-									 fraglen = result.parentFrag.length(fragpos, lastfragpos);
-								 long reflen = optrefmap.get(result.mappedRegion.ref).length(lastrefpos, refpos);
-								 
-								 double sumlen = (fraglen + reflen) * (fraglen + reflen);
-								 double difflen = (fraglen - reflen) * (fraglen - reflen);
-								 double prodlen = (fraglen * reflen);
-								 chisum += 0.2 * difflen / sumlen 
-										 + 0.04 * difflen / prodlen 
-										 + 0.002 * difflen / reflen; 
-								 matchedRegion++;
+								 if (lastrefpos != -1)
+								 {
+									 
+									 long fraglen;
+									 if (direction == 1) 
+										 fraglen = result.parentFrag.length(lastfragpos, fragpos);
+									 else
+										 fraglen = result.parentFrag.length(fragpos, lastfragpos);
+									 long reflen = optrefmap.get(result.mappedRegion.ref).length(lastrefpos, refpos);
+									 
+									 double sumlen = (fraglen + reflen) * (fraglen + reflen);
+									 double difflen = (fraglen - reflen) * (fraglen - reflen);
+									 double prodlen = (fraglen * reflen);
+									 chisum += 0.2 * difflen / sumlen 
+											 + 0.04 * difflen / prodlen 
+											 + 0.002 * difflen / reflen; 
+									 matchedRegion++;
+								 }
+								 lastfragpos = fragpos;
+								 lastrefpos = refpos;
+								 fragpos += direction;
+								 refpos++;
 							 }
-							 lastfragpos = fragpos;
-							 lastrefpos = refpos;
-							 fragpos += direction;
-							 refpos++;
 							 break;						 
 						 case 'I':
-							 fragpos += direction;
+							 fragpos += direction * result.cigar.getRunLength(run);
 							 break;
 						 case 'D':
-							 refpos++;
+							 refpos += result.cigar.getRunLength(run);
 							 break;
 					}
 				}
@@ -851,10 +1019,21 @@ public class ResultClusterModule implements SelectableMode{
 		return standardcluster(mapList, false);
 	}
 	public List<ClusteredResult> standardcluster(List<OptMapResultNode> mapList, boolean processConfidence)	{
+		return standardcluster(mapList, processConfidence, false);
+	}
+	/**
+	 * Clusters the partial maps according to the clustering mode. If <code>skipClustering</code> is set, each partial map is taken as a clustered result as in clustering mode 0, 
+	 * while confidence and the filters on the clustered results are still applied. 
+	 * @param mapList
+	 * @param processConfidence
+	 * @param skipClustering <code>true</code> to skip joining the partial maps
+	 * @return
+	 */
+	public List<ClusteredResult> standardcluster(List<OptMapResultNode> mapList, boolean processConfidence, boolean skipClustering)	{
 		if (mapList.isEmpty())
 			return new ArrayList<ClusteredResult>();
 		List<ClusteredResult> clusteredResultList;
-		switch (clustermode) {
+		switch (skipClustering ? 0 : clustermode) {
 			case 0: clusteredResultList = standardnocluster(mapList); break;
 			case 1: clusteredResultList = standardindelcluster(mapList); break;
 			case 2: clusteredResultList = standardinversioncluster(mapList); break;
@@ -900,15 +1079,57 @@ public class ResultClusterModule implements SelectableMode{
 		parser.accepts("minclustersigratio", "Min clustered mapped signal ratio").withOptionalArg().ofType(Double.class).defaultsTo(-1.0);
 		parser.accepts("overlapcluster", "Allow overlapping clusters at results.").withOptionalArg().ofType(Boolean.class).defaultsTo(true);
 		parser.accepts("maxclusteritem", "Maximum items output. -1: no limit").withOptionalArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("fasttrim", "Trim partial maps by offsets on cigar with incremental rescoring during clustering").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("dagpath", "Link paths and find the best path by array-based dynamic programming during clustering").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
 	}
 
 	public ResultClusterModule copy() {
 		ResultClusterModule rcm = new ResultClusterModule(optrefmap);
 		rcm.setMode(clustermode);
 		rcm.setParameters(closeReference, closeFragment, minMatch, maxTrim, trimear, match, fpp, fnp, indelPenalty, inversionPenalty, translocationPenalty, localPenalty, minClusterScore, minconf, minClusterFragRatio, minClusterMapSigRatio, overlapCluster, maxClusterItem);
+		rcm.setFastTrim(fastTrim);
+		rcm.setDAGPath(dagPath);
+		rcm.setForkJoin(forkJoin);
 		return rcm;
 	}
 
+	/**
+	 * Clusters the result groups within [<code>from</code>, <code>to</code>). The range is halved until it contains one group, and the clustered results are concatenated in the order of the groups.
+	 */
+	private class GroupClusterTask extends RecursiveTask<List<ClusteredResult>> {
+		private static final long serialVersionUID = 1L;
+		private final List<List<OptMapResultNode>> groupedMapList;
+		private final int from;
+		private final int to;
+		private final PathBuilderFilter pbFilter;
+		private final VirtualMapProcessor vmProcessor;
+		
+		GroupClusterTask(List<List<OptMapResultNode>> groupedMapList, int from, int to, PathBuilderFilter pbFilter, VirtualMapProcessor vmProcessor) {
+			this.groupedMapList = groupedMapList;
+			this.from = from;
+			this.to = to;
+			this.pbFilter = pbFilter;
+			this.vmProcessor = vmProcessor;
+		}
+		
+		@Override
+		protected List<ClusteredResult> compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				GroupClusterTask left = new GroupClusterTask(groupedMapList, from, mid, pbFilter, vmProcessor);
+				left.fork();
+				List<ClusteredResult> rightList = new GroupClusterTask(groupedMapList, mid, to, pbFilter, vmProcessor).compute();
+				List<ClusteredResult> clusteredResultList = left.join();
+				clusteredResultList.addAll(rightList);
+				return clusteredResultList;
+			}
+			List<ClusteredResult> clusteredResultList = new ArrayList<ClusteredResult>();
+			ClusteredResult cr = clusterGroup(groupedMapList.get(from), pbFilter, vmProcessor);
+			if (cr != null)
+				clusteredResultList.add(cr);
+			return clusteredResultList;
+		}
+	}
 	
 }
 
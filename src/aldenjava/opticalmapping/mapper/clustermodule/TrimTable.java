@@ -0,0 +1,250 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.clustermodule;
+
+import java.util.Arrays;
+
+import aldenjava.opticalmapping.Cigar;
+import aldenjava.opticalmapping.GenomicPosNode;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * The trimmed alignments of a partial alignment at one end. Trimming one label is done by advancing an offset on the runs of the cigar, and the score is updated from the remaining match, false positive and false negative counts, such that each trim step does not rebuild or rescan the cigar. The trimmed alignments used in evaluation carry no cigar; the complete alignment is only constructed by {@link #getTrimmedResult(int)}. The trimming and scoring are the same as {@link OptMapResultNode#trimResult(int, DataNode)} and {@link OptMapResultNode#updateScore(java.util.LinkedHashMap, int, int, int)}.
+ * 
+ * @author Alden
+ *
+ */
+class TrimTable {
+	private final OptMapResultNode map;
+	private final int step;
+	private final DataNode ref;
+	private final int match;
+	private final int fpp;
+	private final int fnp;
+
+	private OptMapResultNode[] trimmed;
+	private OptMapResultNode[] trimmedResult;
+	private int[] remaining;
+	private int[] remainingM;
+	private int[] remainingI;
+	private int[] remainingD;
+	private int computed;
+
+	// Reading position of the next label to trim, in the reading order of the runs
+	private int runIndex;
+	private int runOffset;
+
+	/**
+	 * Creates the trim table of <code>map</code>.
+	 * 
+	 * @param map
+	 *            the untrimmed partial alignment
+	 * @param step
+	 *            1 to trim from the start of the cigar and -1 to trim from the end, as in {@link OptMapResultNode#trimResult(int, DataNode)}. No trimming is done for 0
+	 * @param ref
+	 *            the reference of the alignment
+	 * @param maxTrim
+	 *            the expected maximum number of trims
+	 * @param match
+	 *            score for one label match
+	 * @param fpp
+	 *            false positive penalty
+	 * @param fnp
+	 *            false negative penalty
+	 */
+	TrimTable(OptMapResultNode map, int step, DataNode ref, int maxTrim, int match, int fpp, int fnp) {
+		this.map = map;
+		this.step = step;
+		this.ref = ref;
+		this.match = match;
+		this.fpp = fpp;
+		this.fnp = fnp;
+		int capacity = maxTrim + 1;
+		trimmed = new OptMapResultNode[capacity];
+		trimmedResult = new OptMapResultNode[capacity];
+		remaining = new int[capacity];
+		remainingM = new int[capacity];
+		remainingI = new int[capacity];
+		remainingD = new int[capacity];
+		trimmed[0] = map;
+		trimmedResult[0] = map;
+		remaining[0] = map.cigar.length();
+		remainingM[0] = map.cigar.getMatch();
+		remainingI[0] = map.cigar.getFP();
+		remainingD[0] = map.cigar.getFN();
+		computed = 1;
+		runIndex = 0;
+		runOffset = 0;
+	}
+
+	/**
+	 * Returns the alignment trimmed by <code>trim</code> labels. The returned alignment has updated positions, mapped region and score, but no cigar. The untrimmed alignment is returned for <code>trim</code> 0.
+	 * 
+	 * @param trim
+	 *            number of labels to trim
+	 * @return the trimmed alignment
+	 */
+	OptMapResultNode get(int trim) {
+		while (computed <= trim)
+			trimNext();
+		return trimmed[trim];
+	}
+
+	/**
+	 * Returns the complete alignment trimmed by <code>trim</code> labels, with the trimmed cigar.
+	 * 
+	 * @param trim
+	 *            number of labels to trim
+	 * @return the trimmed alignment
+	 */
+	OptMapResultNode getTrimmedResult(int trim) {
+		OptMapResultNode result = get(trim);
+		if (trimmedResult[trim] == null) {
+			// the remaining labels in the original order
+			int length = map.cigar.length();
+			int skip = step > 0 ? length - remaining[trim] : 0;
+			int count = remaining[trim];
+			Cigar cigar = new Cigar();
+			for (int r = 0; r < map.cigar.getRunCount() && count > 0; r++) {
+				int runlength = map.cigar.getRunLength(r);
+				if (skip >= runlength) {
+					skip -= runlength;
+					continue;
+				}
+				int used = Math.min(runlength - skip, count);
+				cigar.append(map.cigar.getRunOp(r), used);
+				count -= used;
+				skip = 0;
+			}
+			trimmedResult[trim] = new OptMapResultNode(map.parentFrag, result.mappedRegion, result.mappedstrand, result.subrefstart, result.subrefstop, result.subfragstart, result.subfragstop,
+					cigar, result.mappedscore, result.confidence);
+		}
+		return trimmedResult[trim];
+	}
+
+	private char currentOp() {
+		return map.cigar.getRunOp(step > 0 ? runIndex : map.cigar.getRunCount() - 1 - runIndex);
+	}
+
+	private int currentRunLength() {
+		return map.cigar.getRunLength(step > 0 ? runIndex : map.cigar.getRunCount() - 1 - runIndex);
+	}
+
+	private char consume() {
+		char c = currentOp();
+		runOffset++;
+		if (runOffset == currentRunLength()) {
+			runIndex++;
+			runOffset = 0;
+		}
+		return c;
+	}
+
+	private void trimNext() {
+		if (computed == trimmed.length) {
+			int capacity = trimmed.length * 2;
+			trimmed = Arrays.copyOf(trimmed, capacity);
+			trimmedResult = Arrays.copyOf(trimmedResult, capacity);
+			remaining = Arrays.copyOf(remaining, capacity);
+			remainingM = Arrays.copyOf(remainingM, capacity);
+			remainingI = Arrays.copyOf(remainingI, capacity);
+			remainingD = Arrays.copyOf(remainingD, capacity);
+		}
+		OptMapResultNode prev = trimmed[computed - 1];
+		int subrefstart = prev.subrefstart;
+		int subrefstop = prev.subrefstop;
+		int subfragstart = prev.subfragstart;
+		int subfragstop = prev.subfragstop;
+		int rem = remaining[computed - 1];
+		int m = 0;
+		int i = 0;
+		int d = 0;
+		if (step != 0 && rem > 1) { // will trim to nothing, cannot trim anymore
+			// Remove the first label and all unmatched labels before the next match
+			char c = consume();
+			rem--;
+			do {
+				switch (c) {
+					case 'M':
+						m++;
+						break;
+					case 'I':
+						i++;
+						break;
+					case 'D':
+						d++;
+						break;
+					default:
+						break;
+				}
+				if (rem == 0 || currentOp() == 'M')
+					break;
+				c = consume();
+				rem--;
+			} while (true);
+			if (step > 0) {
+				subrefstart += m + d;
+				if (map.mappedstrand == -1)
+					subfragstart -= m + i;
+				else
+					subfragstart += m + i;
+			} else {
+				subrefstop -= m + d;
+				if (map.mappedstrand == -1)
+					subfragstop += m + i;
+				else
+					subfragstop -= m + i;
+			}
+		}
+		remaining[computed] = rem;
+		remainingM[computed] = remainingM[computed - 1] - m;
+		remainingI[computed] = remainingI[computed - 1] - i;
+		remainingD[computed] = remainingD[computed - 1] - d;
+
+		long mappedstart;
+		long mappedstop;
+		if (subrefstart >= 1)
+			mappedstart = ref.refp[subrefstart - 1];
+		else
+			mappedstart = 0;
+		if (subrefstop < ref.refp.length)
+			mappedstop = ref.refp[subrefstop];
+		else
+			mappedstop = ref.size;
+		OptMapResultNode result = new OptMapResultNode(map.parentFrag, new GenomicPosNode(ref.name, mappedstart, mappedstop), map.mappedstrand, subrefstart, subrefstop, subfragstart, subfragstop, null,
+				0, map.confidence);
+		double score = remainingM[computed] * (double) match - remainingI[computed] * (double) fpp - remainingD[computed] * (double) fnp;
+		result.mappedscore = score * (1 - Math.abs(1 - result.getMapScale()));
+		trimmed[computed] = result;
+		computed++;
+	}
+}
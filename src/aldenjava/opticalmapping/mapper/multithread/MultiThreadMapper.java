@@ -34,19 +34,28 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import joptsimple.OptionSet;
 import aldenjava.common.TimeCounter;
 import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.data.OptMapDataReader;
 import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
 import aldenjava.opticalmapping.mapper.Mapper;
 import aldenjava.opticalmapping.mapper.MapperConstructionException;
@@ -70,6 +79,26 @@ public class MultiThreadMapper implements Closeable {
 	private CompletionService<List<OptMapResultNode>> ecs;
 	private Constructor<? extends Mapper> ctor;
 
+	// Pipeline
+	private static final PipelineBatch END_OF_INPUT = new PipelineBatch(0);
+	private static final PipelineBatch END_OF_OUTPUT = new PipelineBatch(0);
+	private boolean pipeline = false;
+	private int batchSize = 16;
+	private boolean ordered = false;
+	private int reorderBufferSize = 10000;
+	private int scheduleWindow = 0;
+	private BlockingQueue<PipelineBatch> inputQueue;
+	private BlockingQueue<PipelineBatch> outputQueue;
+	private Thread readerThread;
+	private volatile Throwable pipelineException;
+	private int finishedWorkers;
+	// Unordered output
+	private Queue<MultiThreadResultNode> readyResults;
+	// Ordered output: results are placed at sequence % reorderBufferSize, and at most reorderBufferSize data are read but not yet taken
+	private MultiThreadResultNode[] reorderBuffer;
+	private long nextSequence;
+	private Semaphore reorderPermits;
+
 	/**
 	 * Constructs a new <code>MultiThreadMapper</code> based on any class extending <code>Mapper</code> using reflection
 	 * 
@@ -107,17 +136,90 @@ public class MultiThreadMapper implements Closeable {
 		if (mapperNeedToSetParameters)
 			targetmapper.setParameters(options);
 		setParameters((int) options.valueOf("thread"));
+		setPipeline((boolean) options.valueOf("pipeline"), (int) options.valueOf("batchsize"));
+		setOrderedOutput((boolean) options.valueOf("ordered"), (int) options.valueOf("reorderbuffer"));
+		setScheduleWindow((int) options.valueOf("schedulewindow"));
+	}
+
+	/**
+	 * Sets whether the pipelined execution is used, and the number of data in each batch of the pipeline
+	 * 
+	 * @param pipeline
+	 *            <code>true</code> to use {@link #startPipeline(OptMapDataReader)} and {@link #takePipelineResult()}
+	 * @param batchSize
+	 *            number of data in each batch
+	 */
+	public void setPipeline(boolean pipeline, int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be positive.");
+		this.pipeline = pipeline;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets whether the results of the pipelined execution are taken in the input order. Results completed ahead of earlier data are kept in a reorder buffer. Reading is paused when <code>reorderBufferSize</code> data are read but their results are not yet taken. Enabling ordered output also enables the pipelined execution.
+	 * 
+	 * @param ordered
+	 *            <code>true</code> to take results in the input order
+	 * @param reorderBufferSize
+	 *            maximum number of data read but not yet taken
+	 */
+	public void setOrderedOutput(boolean ordered, int reorderBufferSize) {
+		if (reorderBufferSize < 1)
+			throw new IllegalArgumentException("Reorder buffer size must be positive.");
+		this.ordered = ordered;
+		this.reorderBufferSize = reorderBufferSize;
+		if (ordered)
+			this.pipeline = true;
+	}
+
+	/**
+	 * Sets the number of data read ahead for cost-aware scheduling in the pipelined execution. Within each window, data are dispatched in descending order of {@link #estimateCost(DataNode)}. An expensive data forms a batch alone, and cheap data are packed into batches of similar cost, such that the longest tasks do not start at the end of the run. Enabling scheduling also enables the pipelined execution.
+	 * 
+	 * @param scheduleWindow
+	 *            number of data read ahead; 0 to dispatch data in the input order
+	 */
+	public void setScheduleWindow(int scheduleWindow) {
+		if (scheduleWindow < 0)
+			throw new IllegalArgumentException("Schedule window must not be negative.");
+		this.scheduleWindow = scheduleWindow;
+		if (scheduleWindow > 0)
+			this.pipeline = true;
+	}
+
+	/**
+	 * Returns the estimated relative alignment cost of <code>data</code>. Both the number of seeds and the extension of each seed grow with the number of signals, and the extension also grows with the size. Subclasses may override this method to provide a better estimate for a specific mapper.
+	 * 
+	 * @param data
+	 *            the data to be aligned
+	 * @return the estimated cost
+	 */
+	protected double estimateCost(DataNode data) {
+		return (double) data.getTotalSignal() * data.size;
+	}
+
+	/**
+	 * Returns <code>true</code> if the pipelined execution is used
+	 * 
+	 * @return <code>true</code> if the pipelined execution is used
+	 */
+	public boolean isPipeline() {
+		return pipeline;
 	}
 
 	/**
 	 * Sets parameters for <code>MultiThreadMapper</code>. Once the <code>nrOfProcessors</code> is set, a new thread pool is initialized. Each thread is corresponding to a copy of the <code>targetmapper</code>.
+	 * If the <code>targetmapper</code> uses fork-join subtasks, the thread pool is a <code>ForkJoinPool</code>, such that the subtasks run in the same <code>nrOfProcessors</code> threads.
 	 * 
 	 * @param thread
 	 *            number of copies of <code>ommapper</code> to be used
 	 */
 	public void setParameters(int thread) {
 		this.nrOfProcessors = thread;
-		es = Executors.newFixedThreadPool(nrOfProcessors);
+		if (targetmapper.isForkJoin())
+			es = new ForkJoinPool(nrOfProcessors);
+		else
+			es = Executors.newFixedThreadPool(nrOfProcessors);
 		ecs = new ExecutorCompletionService<List<OptMapResultNode>>(es);
 
 		futureList = new ArrayList<Future<List<OptMapResultNode>>>();
@@ -185,7 +287,7 @@ public class MultiThreadMapper implements Closeable {
 		Future<List<OptMapResultNode>> future = ecs.take();
 
 		int i = this.futureList.indexOf(future);
-		MultiThreadResultNode multinode = new MultiThreadResultNode(ommapper[i].getData(), futureList.get(i).get());
+		MultiThreadResultNode multinode = new MultiThreadResultNode(ommapper[i].getData(), futureList.get(i).get(), ommapper[i].isBudgetExceeded());
 		futureList.set(i, null);
 		return multinode;
 	}
@@ -223,6 +325,208 @@ public class MultiThreadMapper implements Closeable {
 		}
 	}
 
+	// Pipeline
+	/**
+	 * Starts the pipelined execution on all data from <code>omdr</code>. A reader thread reads the data in batches, or schedules windows of data into batches if a schedule window is set, into a bounded queue. Each thread of the pool takes batches from the queue and aligns them with its own copy of the <code>targetmapper</code>. The results are taken by {@link #takePipelineResult()}, in the order of batch completion, or in the input order if ordered output is set.
+	 * 
+	 * @param omdr
+	 *            reader of the data to be aligned
+	 */
+	public void startPipeline(final OptMapDataReader omdr) {
+		if (getStatus() != -1 || readerThread != null)
+			throw new IllegalStateException("Mapper is already running.");
+		inputQueue = new ArrayBlockingQueue<PipelineBatch>(nrOfProcessors * 2);
+		outputQueue = new ArrayBlockingQueue<PipelineBatch>(nrOfProcessors * 2 + nrOfProcessors);
+		pipelineException = null;
+		finishedWorkers = 0;
+		if (ordered) {
+			readyResults = null;
+			reorderBuffer = new MultiThreadResultNode[reorderBufferSize];
+			nextSequence = 0;
+			reorderPermits = new Semaphore(reorderBufferSize);
+		}
+		else {
+			readyResults = new ArrayDeque<MultiThreadResultNode>();
+			reorderBuffer = null;
+			reorderPermits = null;
+		}
+		for (int i = 0; i < nrOfProcessors; i++)
+			es.submit(new PipelineWorker(ommapper[i]));
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int windowSize = scheduleWindow > 0 ? scheduleWindow : batchSize;
+					PipelineBatch window = new PipelineBatch(windowSize);
+					long sequence = 0;
+					DataNode data;
+					while ((data = omdr.read()) != null) {
+						if (reorderPermits != null && !reorderPermits.tryAcquire()) {
+							// Results of the current window may be awaited by the reorder buffer
+							dispatch(window);
+							window = new PipelineBatch(windowSize);
+							reorderPermits.acquire();
+						}
+						window.add(data, sequence++);
+						if (window.size() == windowSize) {
+							dispatch(window);
+							window = new PipelineBatch(windowSize);
+						}
+					}
+					dispatch(window);
+				} catch (IOException e) {
+					pipelineException = e;
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					for (int i = 0; i < nrOfProcessors; i++)
+						inputQueue.put(END_OF_INPUT);
+				} catch (InterruptedException e) {
+				}
+			}
+		}, "MultiThreadMapper-Reader");
+		readerThread.start();
+	}
+
+	/**
+	 * Puts the data in <code>window</code> into the input queue. The window is put as a single batch if no schedule window is set.
+	 * 
+	 * @param window
+	 *            data read
+	 * @throws InterruptedException
+	 */
+	private void dispatch(PipelineBatch window) throws InterruptedException {
+		if (window.isEmpty())
+			return;
+		if (scheduleWindow <= 0) {
+			inputQueue.put(window);
+			return;
+		}
+		int n = window.size();
+		final double[] cost = new double[n];
+		double totalCost = 0;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			cost[i] = estimateCost(window.data.get(i));
+			totalCost += cost[i];
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(cost[i2], cost[i1]);
+			}
+		});
+		// A batch is closed when it reaches the cost of an average batch, or the batch size
+		double targetCost = totalCost / n * batchSize;
+		PipelineBatch batch = new PipelineBatch(batchSize);
+		double batchCost = 0;
+		for (int i : order) {
+			batch.add(window.data.get(i), window.sequence[i]);
+			batchCost += cost[i];
+			if (batch.size() == batchSize || batchCost >= targetCost) {
+				inputQueue.put(batch);
+				batch = new PipelineBatch(batchSize);
+				batchCost = 0;
+			}
+		}
+		if (!batch.isEmpty())
+			inputQueue.put(batch);
+	}
+
+	/**
+	 * Returns the next alignment result from the pipelined execution, waiting until one is available.
+	 * 
+	 * @return alignment result wrapped in <code>MultiThreadResultNode</code>; <code>null</code> if all data are processed
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 *             if reading or aligning any data fails. The pipeline is stopped.
+	 */
+	public MultiThreadResultNode takePipelineResult() throws InterruptedException, ExecutionException {
+		if (readerThread == null)
+			throw new IllegalStateException("Pipeline is not started.");
+		MultiThreadResultNode result;
+		while ((result = pollReadyResult()) == null) {
+			if (finishedWorkers == nrOfProcessors) {
+				readerThread.join();
+				readerThread = null;
+				if (pipelineException != null)
+					throw new ExecutionException(pipelineException);
+				return null;
+			}
+			PipelineBatch batch = outputQueue.take();
+			if (pipelineException != null) {
+				stopPipeline();
+				throw new ExecutionException(pipelineException);
+			}
+			if (batch == END_OF_OUTPUT)
+				finishedWorkers++;
+			else
+				for (int i = 0; i < batch.size(); i++)
+					if (ordered)
+						reorderBuffer[(int) (batch.sequence[i] % reorderBufferSize)] = batch.results.get(i);
+					else
+						readyResults.add(batch.results.get(i));
+		}
+		return result;
+	}
+
+	private MultiThreadResultNode pollReadyResult() {
+		if (!ordered)
+			return readyResults.poll();
+		int index = (int) (nextSequence % reorderBufferSize);
+		MultiThreadResultNode result = reorderBuffer[index];
+		if (result != null) {
+			reorderBuffer[index] = null;
+			nextSequence++;
+			reorderPermits.release();
+		}
+		return result;
+	}
+
+	private void stopPipeline() {
+		readerThread.interrupt();
+		readerThread = null;
+		es.shutdownNow();
+	}
+
+	/**
+	 * A worker of the pipeline, which aligns batches of data with its own <code>Mapper</code>
+	 */
+	private class PipelineWorker implements Runnable {
+		private final Mapper mapper;
+
+		public PipelineWorker(Mapper mapper) {
+			this.mapper = mapper;
+		}
+
+		@Override
+		public void run() {
+			try {
+				PipelineBatch batch;
+				while ((batch = inputQueue.take()) != END_OF_INPUT) {
+					for (DataNode data : batch.data) {
+						mapper.setData(data);
+						List<OptMapResultNode> results = mapper.call();
+						batch.results.add(new MultiThreadResultNode(data, results, mapper.isBudgetExceeded()));
+					}
+					outputQueue.put(batch);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				// Errors such as OutOfMemoryError are also reported, otherwise the result taker waits forever
+				pipelineException = e;
+			} finally {
+				try {
+					outputQueue.put(END_OF_OUTPUT);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+	}
+
 	/**
 	 * Returns the merged alignment time of all <code>ommapper</code>
 	 * 
@@ -243,5 +547,10 @@ public class MultiThreadMapper implements Closeable {
 	public static void assignOptions(ExtendOptionParser parser, int level) {
 		parser.addHeader("Multi-thread Options", level);
 		parser.accepts("thread", "Number of threads").withOptionalArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("pipeline", "Pipelined execution with separate reading, aligning and writing stages").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("batchsize", "Number of molecules in each batch of the pipelined execution").withOptionalArg().ofType(Integer.class).defaultsTo(16);
+		parser.accepts("ordered", "Output results in the input order. Pipelined execution is enabled.").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("reorderbuffer", "Maximum number of molecules read but not yet output in ordered output").withOptionalArg().ofType(Integer.class).defaultsTo(10000);
+		parser.accepts("schedulewindow", "Number of molecules read ahead to align expensive molecules first and pack cheap molecules into batches. Pipelined execution is enabled. 0: disabled").withOptionalArg().ofType(Integer.class).defaultsTo(0);
 	}
 }
@@ -45,10 +45,21 @@ public class MultiThreadResultNode {
 
 	public final DataNode data;
 	public final List<OptMapResultNode> alignmentResults;
+	/**
+	 * <code>true</code> if the work budget of the mapper is exceeded on <code>data</code>, and the results are obtained by the fallback strategy
+	 * 
+	 * @see aldenjava.opticalmapping.mapper.Mapper#isBudgetExceeded()
+	 */
+	public final boolean budgetExceeded;
 
 	public MultiThreadResultNode(DataNode data, List<OptMapResultNode> alignmentResults) {
+		this(data, alignmentResults, false);
+	}
+
+	public MultiThreadResultNode(DataNode data, List<OptMapResultNode> alignmentResults, boolean budgetExceeded) {
 		this.data = data;
 		this.alignmentResults = alignmentResults;
+		this.budgetExceeded = budgetExceeded;
 	}
 
 }
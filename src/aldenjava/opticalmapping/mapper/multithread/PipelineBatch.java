@@ -0,0 +1,73 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A batch of data passed through the pipeline of <code>MultiThreadMapper</code>. Each data is tagged with its sequence number in the input, and the alignment results are filled in by the worker in the same order.
+ * 
+ * @author Alden
+ *
+ */
+class PipelineBatch {
+	final List<DataNode> data;
+	final long[] sequence;
+	final List<MultiThreadResultNode> results;
+
+	/**
+	 * Creates an empty batch holding at most <code>capacity</code> data
+	 * 
+	 * @param capacity
+	 *            maximum number of data
+	 */
+	PipelineBatch(int capacity) {
+		this.data = new ArrayList<DataNode>(capacity);
+		this.sequence = new long[capacity];
+		this.results = new ArrayList<MultiThreadResultNode>(capacity);
+	}
+
+	void add(DataNode d, long seq) {
+		sequence[data.size()] = seq;
+		data.add(d);
+	}
+
+	int size() {
+		return data.size();
+	}
+
+	boolean isEmpty() {
+		return data.isEmpty();
+	}
+}
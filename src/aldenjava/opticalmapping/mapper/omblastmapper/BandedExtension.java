@@ -0,0 +1,205 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.Arrays;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A banded dynamic programming engine for one-sided extension. Unlike the greedy extension in <code>SeedExtension</code>, which always takes the first signal pair within the measurement error, all signal pairs within the measurement error are considered as matches, and the path of matches with the highest score is chosen. This resolves the wrong cigar problem of greedy extension:
+ * 
+ * <pre>
+ * Direction -->
+ * --R----------R----R
+ * --S-------S--S----S
+ * W: M-------M--I----M
+ * C: M-------I--M----M
+ * </pre>
+ * 
+ * As in greedy extension, the sizes are accumulated from the initial position, a match must be within <code>measure</code> of the accumulated sizes, and at most <code>falselimit</code> false signals are allowed between two matches. Matches scoring lower than the best match by more than the X-drop threshold are pruned. All working arrays are reused across extensions.
+ * 
+ * @author Alden
+ *
+ */
+class BandedExtension {
+	private int measure = 500;
+	private int matchscore = 5;
+	private int falseppenalty = 2;
+	private int falsenpenalty = 2;
+	private int falselimit = 5;
+
+	// accumulated sizes from the initial position, indexed by steps
+	private double[] cumulatefragmentlen = new double[64];
+	private double[] cumulatereflen = new double[64];
+	// matches, ordered by data steps then by reference steps
+	private int[] matchdatastep = new int[64];
+	private int[] matchrefstep = new int[64];
+	private int[] matchscores = new int[64];
+	private int[] matchprev = new int[64];
+	private int matchcount;
+	// index of the first match of each data step
+	private int[] rowstart = new int[64];
+	private int[] path = new int[64];
+
+	void setParameters(int measure, int matchscore, int falseppenalty, int falsenpenalty, int falselimit) {
+		this.measure = measure;
+		this.matchscore = matchscore;
+		this.falseppenalty = falseppenalty;
+		this.falsenpenalty = falsenpenalty;
+		this.falselimit = falselimit;
+	}
+
+	/**
+	 * Extends the data on reference using a scale <code>ratio</code> from the initial position, which is taken as the first match. The path of matches with the highest score is written to <code>buffer</code>
+	 * 
+	 * @param ref
+	 *            the reference information
+	 * @param data
+	 *            the data to be extended
+	 * @param initialrefpos
+	 *            the initial reference position
+	 * @param initialdatapos
+	 *            the initial data position
+	 * @param direction
+	 *            progressing steps
+	 * @param scale
+	 *            the scale for extension
+	 * @param buffer
+	 *            the buffer storing the result of extension
+	 */
+	void extend(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionBuffer buffer) {
+		int maxdatastep = direction == 1 ? data.getTotalSegment() - 2 - initialdatapos : initialdatapos - 1;
+		int maxrefstep = direction == 1 ? ref.refp.length - 1 - initialrefpos : initialrefpos - 1;
+		int xdrop = falselimit * (falseppenalty + falsenpenalty);
+
+		cumulatefragmentlen[0] = 0;
+		cumulatereflen[0] = 0;
+		int refsteps = 0;
+		matchcount = 0;
+		addMatch(0, 0, matchscore + matchscore, -1);
+		rowstart[0] = 0;
+		int best = 0;
+		int lastrow = 0;
+		int lowrefstep = 1;
+		for (int datastep = 1; datastep <= maxdatastep && datastep - lastrow <= falselimit + 1; datastep++) {
+			if (datastep == rowstart.length)
+				rowstart = Arrays.copyOf(rowstart, rowstart.length * 2);
+			if (datastep >= cumulatefragmentlen.length)
+				cumulatefragmentlen = Arrays.copyOf(cumulatefragmentlen, cumulatefragmentlen.length * 2);
+			cumulatefragmentlen[datastep] = cumulatefragmentlen[datastep - 1] + data.getRefl(initialdatapos + datastep * direction) + 1;
+			rowstart[datastep] = matchcount;
+			double fragmentlen = cumulatefragmentlen[datastep];
+			while (lowrefstep <= refsteps && cumulatereflen[lowrefstep] < fragmentlen - measure)
+				lowrefstep++;
+			for (int refstep = lowrefstep; refstep <= maxrefstep; refstep++) {
+				if (refstep > refsteps) {
+					if (refstep >= cumulatereflen.length)
+						cumulatereflen = Arrays.copyOf(cumulatereflen, cumulatereflen.length * 2);
+					cumulatereflen[refstep] = cumulatereflen[refstep - 1] + (ref.getRefl(initialrefpos + refstep * direction) + 1) * scale;
+					refsteps = refstep;
+				}
+				double reflen = cumulatereflen[refstep];
+				if (reflen > fragmentlen + measure)
+					break;
+				if (Math.abs(reflen - fragmentlen) > measure)
+					continue;
+				// Find the best previous match, within falselimit false signals
+				int prev = -1;
+				int score = Integer.MIN_VALUE;
+				for (int row = Math.max(0, datastep - falselimit - 1); row < datastep; row++)
+					for (int m = rowstart[row]; m < rowstart[row + 1]; m++) {
+						int fp = datastep - matchdatastep[m] - 1;
+						int fn = refstep - matchrefstep[m] - 1;
+						if (fn < 0 || fp + fn > falselimit)
+							continue;
+						int s = matchscores[m] + matchscore - fp * falseppenalty - fn * falsenpenalty;
+						if (s > score) {
+							score = s;
+							prev = m;
+						}
+					}
+				if (prev == -1 || score < matchscores[best] - xdrop)
+					continue;
+				addMatch(datastep, refstep, score, prev);
+				if (score > matchscores[best])
+					best = matchcount - 1;
+			}
+			if (matchcount > rowstart[datastep])
+				lastrow = datastep;
+		}
+
+		int pathlen = 0;
+		for (int m = best; m != -1; m = matchprev[m]) {
+			if (pathlen == path.length)
+				path = Arrays.copyOf(path, path.length * 2);
+			path[pathlen++] = m;
+		}
+		buffer.reset(direction);
+		buffer.add(ExtensionBuffer.MATCH);
+		for (int p = pathlen - 2; p >= 0; p--) {
+			int from = path[p + 1];
+			int to = path[p];
+			int datastep = matchdatastep[from];
+			int refstep = matchrefstep[from];
+			// false signals are placed in the same order as greedy extension
+			while (datastep < matchdatastep[to] - 1 || refstep < matchrefstep[to] - 1) {
+				if (refstep == matchrefstep[to] - 1 || (datastep < matchdatastep[to] - 1 && cumulatereflen[refstep] > cumulatefragmentlen[datastep])) {
+					datastep++;
+					buffer.add(ExtensionBuffer.FALSEP);
+				} else {
+					refstep++;
+					buffer.add(ExtensionBuffer.FALSEN);
+				}
+			}
+			buffer.add(ExtensionBuffer.MATCH);
+		}
+		buffer.commit();
+		buffer.score = matchscores[best];
+		buffer.stoprefpos = initialrefpos + matchrefstep[best] * direction;
+		buffer.stopfragmentpos = initialdatapos + matchdatastep[best] * direction;
+	}
+
+	private void addMatch(int datastep, int refstep, int score, int prev) {
+		if (matchcount == matchdatastep.length) {
+			int newsize = matchcount * 2;
+			matchdatastep = Arrays.copyOf(matchdatastep, newsize);
+			matchrefstep = Arrays.copyOf(matchrefstep, newsize);
+			matchscores = Arrays.copyOf(matchscores, newsize);
+			matchprev = Arrays.copyOf(matchprev, newsize);
+		}
+		matchdatastep[matchcount] = datastep;
+		matchrefstep[matchcount] = refstep;
+		matchscores[matchcount] = score;
+		matchprev[matchcount] = prev;
+		matchcount++;
+	}
+}
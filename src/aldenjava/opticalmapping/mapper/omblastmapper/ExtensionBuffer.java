@@ -0,0 +1,147 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer holding the result of a one-sided extension. Alignment operations are stored as bytes in the extension order. Only the prefix up to the last committed operation belongs to the extension result; operations after it are discarded when the extension stops.
+ * 
+ * @author Alden
+ *
+ */
+class ExtensionBuffer {
+	static final byte MATCH = 'M';
+	static final byte FALSEP = 'I';
+	static final byte FALSEN = 'D';
+
+	private byte[] ops;
+	private int size;
+	private int committedsize;
+	int direction;
+	int stoprefpos;
+	int stopfragmentpos;
+	int score;
+
+	ExtensionBuffer() {
+		this(64);
+	}
+
+	private ExtensionBuffer(int capacity) {
+		ops = new byte[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Clears the buffer for a new extension
+	 * 
+	 * @param direction
+	 *            progressing steps of the new extension
+	 */
+	void reset(int direction) {
+		this.direction = direction;
+		this.size = 0;
+		this.committedsize = 0;
+		this.stoprefpos = -1;
+		this.stopfragmentpos = -1;
+		this.score = 0;
+	}
+
+	void add(byte op) {
+		if (size == ops.length)
+			ops = Arrays.copyOf(ops, ops.length * 2);
+		ops[size++] = op;
+	}
+
+	/**
+	 * Includes all operations added so far in the extension result
+	 */
+	void commit() {
+		committedsize = size;
+	}
+
+	/**
+	 * Returns the number of operations in the extension result
+	 * 
+	 * @return the number of committed operations
+	 */
+	int length() {
+		return committedsize;
+	}
+
+	/**
+	 * Appends the committed operations to <code>precigar</code> in the order of the reference. Operations of a leftward extension are therefore appended in reverse.
+	 * 
+	 * @param precigar
+	 *            the precigar to be appended
+	 */
+	void appendTo(StringBuilder precigar) {
+		if (direction == -1)
+			for (int i = committedsize - 1; i >= 0; i--)
+				precigar.append((char) ops[i]);
+		else
+			for (int i = 0; i < committedsize; i++)
+				precigar.append((char) ops[i]);
+	}
+
+	/**
+	 * Replaces the content of this buffer by the committed operations and the result of <code>buffer</code>
+	 * 
+	 * @param buffer
+	 *            the buffer to be copied
+	 */
+	void set(ExtensionBuffer buffer) {
+		reset(buffer.direction);
+		if (ops.length < buffer.committedsize)
+			ops = new byte[buffer.committedsize];
+		System.arraycopy(buffer.ops, 0, ops, 0, buffer.committedsize);
+		size = committedsize = buffer.committedsize;
+		stoprefpos = buffer.stoprefpos;
+		stopfragmentpos = buffer.stopfragmentpos;
+		score = buffer.score;
+	}
+
+	/**
+	 * Returns a copy of this buffer with the committed operations only
+	 * 
+	 * @return a copy of this buffer
+	 */
+	ExtensionBuffer copy() {
+		ExtensionBuffer buffer = new ExtensionBuffer(committedsize);
+		buffer.set(this);
+		return buffer;
+	}
+
+	String toPrecigar() {
+		StringBuilder precigar = new StringBuilder(committedsize);
+		appendTo(precigar);
+		return precigar.toString();
+	}
+}
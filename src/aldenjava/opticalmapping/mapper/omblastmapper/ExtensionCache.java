@@ -0,0 +1,151 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of one-sided extensions of the same data. Extensions are keyed by the reference, the initial positions, the direction and the scale quantized to <code>scalestep</code>. The least recently used extension is removed when the cache is full.
+ * 
+ * @author Alden
+ *
+ */
+class ExtensionCache {
+	private final int maxsize;
+	private final double scalestep;
+	private final LinkedHashMap<Key, ExtensionBuffer> cache;
+	private final Key probe = new Key();
+
+	ExtensionCache(final int maxsize, double scalestep) {
+		this.maxsize = maxsize;
+		this.scalestep = scalestep;
+		this.cache = new LinkedHashMap<Key, ExtensionBuffer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, ExtensionBuffer> eldest) {
+				return size() > maxsize;
+			}
+		};
+	}
+
+	int getMaxSize() {
+		return maxsize;
+	}
+
+	double getScaleStep() {
+		return scalestep;
+	}
+
+	/**
+	 * Rounds the <code>scale</code> to the nearest multiple of <code>scalestep</code>. Extensions should be performed with the quantized scale, such that a cached extension is the same as a new extension
+	 * 
+	 * @param scale
+	 *            the scale for extension
+	 * @return the quantized scale
+	 */
+	double quantize(double scale) {
+		if (scalestep <= 0)
+			return scale;
+		return Math.round(scale / scalestep) * scalestep;
+	}
+
+	/**
+	 * Loads the cached extension into <code>buffer</code>
+	 * 
+	 * @param refName
+	 *            name of the reference
+	 * @param initialrefpos
+	 *            the initial reference position
+	 * @param initialdatapos
+	 *            the initial data position
+	 * @param direction
+	 *            progressing steps
+	 * @param scale
+	 *            the quantized scale for extension
+	 * @param buffer
+	 *            the buffer to load the extension into
+	 * @return <code>true</code> if the extension is found in the cache
+	 */
+	boolean load(String refName, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionBuffer buffer) {
+		probe.set(refName, initialrefpos, initialdatapos, direction, scale);
+		ExtensionBuffer cached = cache.get(probe);
+		if (cached == null)
+			return false;
+		buffer.set(cached);
+		return true;
+	}
+
+	void store(String refName, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionBuffer buffer) {
+		Key key = new Key();
+		key.set(refName, initialrefpos, initialdatapos, direction, scale);
+		cache.put(key, buffer.copy());
+	}
+
+	void clear() {
+		cache.clear();
+	}
+
+	private static class Key {
+		private String refName;
+		private int initialrefpos;
+		private int initialdatapos;
+		private int direction;
+		private long scalebits;
+
+		void set(String refName, int initialrefpos, int initialdatapos, int direction, double scale) {
+			this.refName = refName;
+			this.initialrefpos = initialrefpos;
+			this.initialdatapos = initialdatapos;
+			this.direction = direction;
+			this.scalebits = Double.doubleToLongBits(scale);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = refName.hashCode();
+			result = 31 * result + initialrefpos;
+			result = 31 * result + initialdatapos;
+			result = 31 * result + direction;
+			result = 31 * result + (int) (scalebits ^ (scalebits >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key key = (Key) obj;
+			return initialrefpos == key.initialrefpos && initialdatapos == key.initialdatapos && direction == key.direction && scalebits == key.scalebits && refName.equals(key.refName);
+		}
+	}
+}
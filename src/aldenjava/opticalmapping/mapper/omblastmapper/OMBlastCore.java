@@ -31,8 +31,12 @@
 package aldenjava.opticalmapping.mapper.omblastmapper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import aldenjava.opticalmapping.GenomicPosNode;
 import aldenjava.opticalmapping.data.data.DataNode;
@@ -41,6 +45,7 @@ import aldenjava.opticalmapping.mapper.ExtensionResult;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
 import aldenjava.opticalmapping.mapper.seeding.Seed;
 import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+import aldenjava.opticalmapping.mapper.seeding.SelfSimilarityFilter;
 
 /**
  * The core module for <code>OMBlastMapper</code>
@@ -52,12 +57,25 @@ public class OMBlastCore {
 	private LinkedHashMap<String, DataNode> optrefmap;
 
 	private SeedExtension seedextensionmodule;
+	private SeedChaining seedchainingmodule;
+	private boolean seedChaining = false;
 	private SeedDatabase seeddatabase;
 	private int measure;
 	private double ear;
 	private int kmerlen;
 	private int maxnosignalregion;
 	private int maxSeedNumber;
+	private String seedIndexFile;
+	private long referenceChecksum;
+	private final SelfSimilarityFilter selfSimilarityFilter = new SelfSimilarityFilter();
+	private boolean forkJoin = false;
+	// Work budget of each data: maximum number of seeds extended on each strand, and maximum alignment time in ns; -1 for no limit
+	private int maxSeed = -1;
+	private long maxAlignTime = -1;
+	private long alignStart;
+	private volatile boolean budgetExceeded = false;
+	// Maximum number of seeds (or chains) extended in one fork-join subtask
+	private static final int EXTENSION_TASK_SIZE = 16;
 
 	public OMBlastCore(LinkedHashMap<String, DataNode> optrefmap, SeedExtension seedextensionmodule, SeedDatabase seeddatabase, int measure, double ear, int kmerlen,
 			int maxnosignalregion, int maxSeedNumber) {
@@ -85,22 +103,171 @@ public class OMBlastCore {
 		seeddatabase = new SeedDatabase(optrefmap);
 		seeddatabase.setMode(seedingmode);
 		seeddatabase.setParameters(kmerlen, maxnosignalregion);
+		if (seedIndexFile != null)
+			seeddatabase.setIndexFile(seedIndexFile, referenceChecksum);
 		seeddatabase.buildDatabase();
 		this.seedextensionmodule = new SeedExtension(optrefmap);
 		this.seedextensionmodule.setParameters(measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, allowLocalAlignment);
+		this.seedchainingmodule = new SeedChaining(optrefmap);
+		this.seedchainingmodule.setParameters(measure, ear);
 	}
 
 	/**
-	 * Restricts the regions for alignment. This method rebuilds the
-	 * <code>seedDatabase</code>. The database is not rebuilt if regionList
-	 * remains <code>null</code> for previous <code>data</code> and this
-	 * <code>data</code>.
+	 * Enables chaining of colinear seeds before extension. Only the anchor of each chain and the seeds not covered by previous extensions of the chain are extended.
+	 * 
+	 * @param seedChaining
+	 *            <code>true</code> to enable seed chaining
+	 * @see SeedChaining
+	 */
+	public void setSeedChaining(boolean seedChaining) {
+		this.seedChaining = seedChaining;
+	}
+
+	/**
+	 * Sets the extension mode of the seed extension module. This method should be called after <code>setParameters</code>.
+	 * 
+	 * @param extensionmode
+	 *            the extension mode
+	 * @see SeedExtension#setMode(int)
+	 */
+	public void setExtensionMode(int extensionmode) {
+		this.seedextensionmodule.setMode(extensionmode);
+	}
+
+	/**
+	 * Sets whether banded dynamic programming is used in extension. This method should be called after <code>setParameters</code>.
+	 * 
+	 * @param bandedExtension
+	 *            <code>true</code> to use banded dynamic programming extension
+	 * @see SeedExtension#setBandedExtension(boolean)
+	 */
+	public void setBandedExtension(boolean bandedExtension) {
+		this.seedextensionmodule.setBandedExtension(bandedExtension);
+	}
+
+	/**
+	 * Sets the extension cache of the seed extension module. This method should be called after <code>setParameters</code>.
+	 * 
+	 * @param maxsize
+	 *            maximum number of cached extensions; 0 to disable the cache
+	 * @param scalestep
+	 *            step for quantizing the scale
+	 * @see SeedExtension#setExtensionCache(int, double)
+	 */
+	public void setExtensionCache(int maxsize, double scalestep) {
+		this.seedextensionmodule.setExtensionCache(maxsize, scalestep);
+	}
+
+	/**
+	 * Sets whether the alignment of one data is split into fork-join subtasks. The subtasks run in the <code>ForkJoinPool</code> of the calling thread, such as the pool of
+	 * <code>MultiThreadMapper</code> in fork-join mode, so that the number of threads is not increased; the alignment is sequential if the calling thread is not in any pool. The reverse strand is aligned in parallel with the forward strand, and the
+	 * seeds (or chains) of each strand are extended in subtasks of at most {@value #EXTENSION_TASK_SIZE}. Each subtask extends with its own copy of the seed extension module, so
+	 * cached extensions are only shared within a subtask. The results are the same as sequential alignment unless the extension cache quantizes the scale.
+	 * 
+	 * @param forkJoin
+	 *            <code>true</code> to align each data with fork-join subtasks
+	 */
+	public void setForkJoin(boolean forkJoin) {
+		this.forkJoin = forkJoin;
+	}
+
+	/**
+	 * Sets the work budget of each data. If a strand has more seeds than <code>maxSeed</code>, only the seeds of the most specific kmers, i.e. the kmers with the fewest seeds, are
+	 * extended within the budget. No more seeds are extended once the alignment time exceeds <code>maxAlignTime</code>.
+	 * 
+	 * @param maxSeed
+	 *            maximum number of seeds extended on each strand; -1 for no limit
+	 * @param maxAlignTime
+	 *            maximum alignment time in ms; -1 for no limit
+	 * @see #isBudgetExceeded()
+	 */
+	public void setWorkBudget(int maxSeed, long maxAlignTime) {
+		this.maxSeed = maxSeed;
+		this.maxAlignTime = maxAlignTime == -1 ? -1 : maxAlignTime * 1000000L;
+	}
+
+	/**
+	 * Returns whether the work budget is exceeded on the last aligned data, where some seeds are not extended
+	 * 
+	 * @return <code>true</code> if the work budget is exceeded
+	 */
+	public boolean isBudgetExceeded() {
+		return budgetExceeded;
+	}
+
+	/**
+	 * Returns <code>true</code> if the alignment time exceeds the work budget. The budget is marked as exceeded.
+	 */
+	private boolean isTimeExceeded() {
+		if (maxAlignTime != -1 && System.nanoTime() - alignStart > maxAlignTime) {
+			budgetExceeded = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Selects the seeds of the kmers with the fewest seeds, such that at most <code>maxSeed</code> seeds are selected. The seeds are pooled in the original order of the kmers.
+	 * 
+	 * @param seedlistlist
+	 *            the seeds of each kmer
+	 * @return the pooled seeds within the budget
+	 */
+	private List<Seed> limitSeed(final List<List<Seed>> seedlistlist) {
+		Integer[] order = new Integer[seedlistlist.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Integer.compare(seedlistlist.get(i1).size(), seedlistlist.get(i2).size());
+			}
+		});
+		boolean[] selected = new boolean[order.length];
+		int total = 0;
+		for (int i : order) {
+			if (total + seedlistlist.get(i).size() > maxSeed)
+				break;
+			total += seedlistlist.get(i).size();
+			selected[i] = true;
+		}
+		List<Seed> pooledseedlist = new ArrayList<Seed>(total);
+		for (int i = 0; i < order.length; i++)
+			if (selected[i])
+				pooledseedlist.addAll(seedlistlist.get(i));
+		return pooledseedlist;
+	}
+
+	/**
+	 * Returns <code>true</code> if fork-join is enabled and the current thread runs in a <code>ForkJoinPool</code>
+	 */
+	private boolean useForkJoin() {
+		return forkJoin && ForkJoinTask.inForkJoinPool();
+	}
+
+	/**
+	 * Uses a seed index file for the seed database. This method should be called before <code>setParameters</code>.
+	 * 
+	 * @param seedIndexFile
+	 *            the seed index file
+	 * @param referenceChecksum
+	 *            checksum of the reference file
+	 * @see SeedDatabase#setIndexFile(String, long)
+	 */
+	public void setSeedIndex(String seedIndexFile, long referenceChecksum) {
+		this.seedIndexFile = seedIndexFile;
+		this.referenceChecksum = referenceChecksum;
+	}
+
+	/**
+	 * Restricts the regions for alignment. Seeds outside the regions are
+	 * filtered out at query time, so the <code>seedDatabase</code> is not
+	 * rebuilt for each <code>data</code>.
 	 * 
 	 * @param regionList
 	 */
 	public void restrictRegion(List<GenomicPosNode> regionList) {
 		seeddatabase.restrictRegion(regionList);
-		seeddatabase.buildDatabase();
 	}
 
 	/**
@@ -110,31 +277,117 @@ public class OMBlastCore {
 	 * @return Extension results
 	 */
 	private List<ExtensionResult> seedAndExtend(DataNode data) {
+		return seedAndExtend(data, selfSimilarityFilter);
+	}
+
+	/**
+	 * Same as {@link #seedAndExtend(DataNode)}, but the given <code>filter</code> is used to remove high-density regions, such that both strands can be processed at the same
+	 * time. In fork-join mode, the extensions are done in {@link ExtensionTask}.
+	 */
+	private List<ExtensionResult> seedAndExtend(DataNode data, SelfSimilarityFilter filter) {
 		List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
+		if (!useForkJoin())
+			seedextensionmodule.clearExtensionCache();
 		List<Kmer> dataKmerList = data.getKmerWord(kmerlen, maxnosignalregion);
 		
 		// Remove high-density regions
-		SeedDatabase tDatabase = new SeedDatabase(dataKmerList, kmerlen);
-		tDatabase.setMode(1);
-		tDatabase.setParameters(kmerlen, maxnosignalregion);
-		dataKmerList = tDatabase.filter(dataKmerList, ear, measure, maxSeedNumber, 100);
+		dataKmerList = filter.filter(dataKmerList, ear, measure, maxSeedNumber, 100);
 
+		List<List<Seed>> seedlistlist = seeddatabase.getJoinedSeed(dataKmerList, ear, measure);
 		List<Seed> pooledseedlist = new ArrayList<Seed>();
-		for (Kmer fragmentkmer : dataKmerList) {
-			List<Seed> seedlist = seeddatabase.getJoinedSeed(fragmentkmer, ear, measure);
+		for (List<Seed> seedlist : seedlistlist)
 			pooledseedlist.addAll(seedlist);
+		if (maxSeed != -1 && pooledseedlist.size() > maxSeed) {
+			budgetExceeded = true;
+			pooledseedlist = limitSeed(seedlistlist);
 		}
 		
 		// Extension
-		for (Seed seed : pooledseedlist) {
+		if (seedChaining) {
+			List<List<Seed>> chainlist = seedchainingmodule.chain(data, pooledseedlist);
+			if (useForkJoin())
+				return new ExtensionTask(data, null, chainlist, 0, chainlist.size()).invoke();
+			for (List<Seed> chain : chainlist) {
+				if (isTimeExceeded())
+					break;
+				extensionresultlist.addAll(extendChain(data, chain, seedextensionmodule));
+			}
+		}
+		else {
+			if (useForkJoin())
+				return new ExtensionTask(data, pooledseedlist, null, 0, pooledseedlist.size()).invoke();
+			for (Seed seed : pooledseedlist) {
+				if (isTimeExceeded())
+					break;
+				ExtensionResult tmpresult = seedextensionmodule.extension(data, seed);
+				if (tmpresult != null)
+					extensionresultlist.add(tmpresult);
+			}
+		}
+
+		return extensionresultlist;
+	}
+
+	/**
+	 * Extends the anchor of a chain, and then the seeds of the chain not yet covered by any extension result of the chain.
+	 * 
+	 * @param data <code>data</code> for extension
+	 * @param chain a chain of seeds
+	 * @param seedextensionmodule the seed extension module used
+	 * @return Extension results
+	 */
+	private List<ExtensionResult> extendChain(DataNode data, List<Seed> chain, SeedExtension seedextensionmodule) {
+		List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
+		Seed anchor = SeedChaining.getAnchor(chain);
+		ExtensionResult anchorresult;
+		if (chain.size() > 1) {
+			double[] scaleRange = seedchainingmodule.getScaleRange(data, chain);
+			anchorresult = seedextensionmodule.extension(data, anchor, scaleRange[1], scaleRange[0]);
+		} else
+			anchorresult = seedextensionmodule.extension(data, anchor);
+		if (anchorresult != null)
+			extensionresultlist.add(anchorresult);
+		NextSeed: for (Seed seed : chain) {
+			if (seed == anchor)
+				continue;
+			for (ExtensionResult result : extensionresultlist)
+				if (isCovered(result, seed))
+					continue NextSeed;
 			ExtensionResult tmpresult = seedextensionmodule.extension(data, seed);
 			if (tmpresult != null)
 				extensionresultlist.add(tmpresult);
 		}
-
 		return extensionresultlist;
 	}
 
+	/**
+	 * Checks if the alignment path of <code>result</code> matches the first signals of <code>seed</code>, such that extension from <code>seed</code> is expected to follow the same path.
+	 */
+	private static boolean isCovered(ExtensionResult result, Seed seed) {
+		if (!result.refName.equals(seed.source))
+			return false;
+		int refpos = result.startfinalrefpos;
+		int datapos = result.startfinalfragmentpos;
+		for (int i = 0; i < result.precigar.length() && refpos <= seed.pos && datapos <= seed.kmerpointer.pos; i++)
+			switch (result.precigar.charAt(i)) {
+				case 'M':
+					if (refpos == seed.pos && datapos == seed.kmerpointer.pos)
+						return true;
+					refpos++;
+					datapos++;
+					break;
+				case 'I':
+					datapos++;
+					break;
+				case 'D':
+					refpos++;
+					break;
+				default:
+					break;
+			}
+		return false;
+	}
+
 	/**
 	 * Performs alignments by seed-and-extending forward and reverse data.
 	 * 
@@ -144,8 +397,12 @@ public class OMBlastCore {
 	 * @see #seedAndExtend(DataNode)
 	 */
 	public List<OptMapResultNode> getResult(DataNode data) {
+		budgetExceeded = false;
+		alignStart = System.nanoTime();
 		if (data.getTotalSegment() - 2 < kmerlen)
 			return null;
+		if (useForkJoin())
+			return new AlignmentTask(data).invoke();
 		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
 
 		// forward
@@ -167,6 +424,92 @@ public class OMBlastCore {
 	 * @return a copy of this instance
 	 */
 	public OMBlastCore copy() {
-		return new OMBlastCore(optrefmap, seedextensionmodule.copy(), seeddatabase.copy(), measure, ear, kmerlen, maxnosignalregion, maxSeedNumber);
+		OMBlastCore core = new OMBlastCore(optrefmap, seedextensionmodule.copy(), seeddatabase.copy(), measure, ear, kmerlen, maxnosignalregion, maxSeedNumber);
+		core.seedchainingmodule = seedchainingmodule.copy();
+		core.seedChaining = seedChaining;
+		core.forkJoin = forkJoin;
+		core.maxSeed = maxSeed;
+		core.maxAlignTime = maxAlignTime;
+		return core;
+	}
+
+	/**
+	 * Aligns both strands of a data. The reverse strand is forked with its own self-similarity filter, and the results are ordered as in {@link OMBlastCore#getResult(DataNode)}.
+	 */
+	private class AlignmentTask extends RecursiveTask<List<OptMapResultNode>> {
+		private static final long serialVersionUID = 1L;
+		private final DataNode data;
+
+		AlignmentTask(DataNode data) {
+			this.data = data;
+		}
+
+		@Override
+		protected List<OptMapResultNode> compute() {
+			final DataNode reversedfragment = data.getReverse();
+			RecursiveTask<List<ExtensionResult>> reverseTask = new RecursiveTask<List<ExtensionResult>>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected List<ExtensionResult> compute() {
+					return seedAndExtend(reversedfragment, new SelfSimilarityFilter());
+				}
+			};
+			reverseTask.fork();
+			List<ExtensionResult> forwardlist = seedAndExtend(data, selfSimilarityFilter);
+			List<ExtensionResult> reverselist = reverseTask.join();
+
+			List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
+			for (ExtensionResult extensionresult : forwardlist)
+				fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, 1));
+			for (ExtensionResult extensionresult : reverselist)
+				fragmentmaplist.add(extensionresult.toAlignment(data, optrefmap, -1));
+			return fragmentmaplist;
+		}
+	}
+
+	/**
+	 * Extends the seeds (or the chains if <code>chainlist</code> is not <code>null</code>) within [<code>from</code>, <code>to</code>). The range is halved until it contains at
+	 * most {@value #EXTENSION_TASK_SIZE} items, and the results are concatenated in the original order.
+	 */
+	private class ExtensionTask extends RecursiveTask<List<ExtensionResult>> {
+		private static final long serialVersionUID = 1L;
+		private final DataNode data;
+		private final List<Seed> seedlist;
+		private final List<List<Seed>> chainlist;
+		private final int from;
+		private final int to;
+
+		ExtensionTask(DataNode data, List<Seed> seedlist, List<List<Seed>> chainlist, int from, int to) {
+			this.data = data;
+			this.seedlist = seedlist;
+			this.chainlist = chainlist;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<ExtensionResult> compute() {
+			if (to - from > EXTENSION_TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				ExtensionTask left = new ExtensionTask(data, seedlist, chainlist, from, mid);
+				left.fork();
+				List<ExtensionResult> rightlist = new ExtensionTask(data, seedlist, chainlist, mid, to).compute();
+				List<ExtensionResult> extensionresultlist = left.join();
+				extensionresultlist.addAll(rightlist);
+				return extensionresultlist;
+			}
+			List<ExtensionResult> extensionresultlist = new ArrayList<ExtensionResult>();
+			SeedExtension extension = seedextensionmodule.copy();
+			for (int i = from; i < to && !isTimeExceeded(); i++)
+				if (chainlist != null)
+					extensionresultlist.addAll(extendChain(data, chainlist.get(i), extension));
+				else {
+					ExtensionResult tmpresult = extension.extension(data, seedlist.get(i));
+					if (tmpresult != null)
+						extensionresultlist.add(tmpresult);
+				}
+			return extensionresultlist;
+		}
 	}
 }
\ No newline at end of file
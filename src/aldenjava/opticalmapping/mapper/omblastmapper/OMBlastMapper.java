@@ -41,6 +41,7 @@ import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
 import aldenjava.opticalmapping.mapper.Mapper;
 import aldenjava.opticalmapping.mapper.MapperConstructionException;
 import aldenjava.opticalmapping.mapper.seeding.SeedDatabase;
+import aldenjava.opticalmapping.mapper.seeding.SeedIndexFile;
 import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
 
 /**
@@ -52,6 +53,8 @@ import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
 public class OMBlastMapper extends Mapper {
 
 	private OMBlastCore blastcore = null;
+	private String seedIndexFile = null;
+	private long referenceChecksum;
 
 	/**
 	 * Constructs an <code>OMBlastMapper</code> based on the reference information
@@ -66,15 +69,44 @@ public class OMBlastMapper extends Mapper {
 	@Override
 	public void setParameters(OptionSet options) throws IOException {
 		super.setParameters(options);
+		if (options.has("seedindex"))
+			this.setSeedIndex((String) options.valueOf("seedindex"), SeedIndexFile.checksum((String) options.valueOf("refmapin")));
 		this.setParameters((int) options.valueOf("seedingmode"), (boolean) options.valueOf("local"), (int) options.valueOf("falselimit"), (int) options.valueOf("k"),
 				(int) options.valueOf("maxnosignal"), (int) options.valueOf("meas"), (double) options.valueOf("ear"), (int) options.valueOf("match"), (int) options.valueOf("fpp"),
 				(int) options.valueOf("fnp"), (int) options.valueOf("maxseedno"));
+		blastcore.setSeedChaining((boolean) options.valueOf("seedchain"));
+		blastcore.setExtensionMode((int) options.valueOf("extensionmode"));
+		blastcore.setBandedExtension((boolean) options.valueOf("bandedext"));
+		blastcore.setExtensionCache((int) options.valueOf("extcache"), (double) options.valueOf("extcachestep"));
+		blastcore.setForkJoin(isForkJoin());
 	}
 
 	public void setParameters(int seedingmode, boolean allowLocalAlignment, int falselimit, int kmerlen, int maxnosignalregion, int measure, double ear, int matchscore, int falseppenalty,
 			int falsenpenalty, int maxSeedNumber) {
 		blastcore = new OMBlastCore(optrefmap);
+		blastcore.setSeedIndex(seedIndexFile, referenceChecksum);
 		blastcore.setParameters(seedingmode, kmerlen, maxnosignalregion, allowLocalAlignment, measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, maxSeedNumber);
+		blastcore.setWorkBudget(getMaxPartialMap(), getMaxAlignTime());
+	}
+
+	@Override
+	public void setWorkBudget(int maxPartialMap, long maxAlignTime) {
+		super.setWorkBudget(maxPartialMap, maxAlignTime);
+		if (blastcore != null)
+			blastcore.setWorkBudget(maxPartialMap, maxAlignTime);
+	}
+
+	/**
+	 * Uses a seed index file built by <code>SeedIndexFile</code> instead of indexing the reference. This method should be called before <code>setParameters</code>.
+	 * 
+	 * @param seedIndexFile
+	 *            the seed index file
+	 * @param referenceChecksum
+	 *            checksum of the reference file
+	 */
+	public void setSeedIndex(String seedIndexFile, long referenceChecksum) {
+		this.seedIndexFile = seedIndexFile;
+		this.referenceChecksum = referenceChecksum;
 	}
 
 	@Override
@@ -83,7 +115,10 @@ public class OMBlastMapper extends Mapper {
 			return null;
 		else {
 			blastcore.restrictRegion(regionList);
-			return blastcore.getResult(data);
+			List<OptMapResultNode> resultlist = blastcore.getResult(data);
+			if (blastcore.isBudgetExceeded())
+				reportBudgetExceeded();
+			return resultlist;
 		}
 	}
 
@@ -108,7 +143,10 @@ public class OMBlastMapper extends Mapper {
 		parser.accepts("fnp", "False negative penalty").withOptionalArg().ofType(Integer.class).defaultsTo(2);
 		parser.accepts("falselimit", "Max consecutive false signals").withOptionalArg().ofType(Integer.class).defaultsTo(5);
 		parser.accepts("maxseedno", "Maximum similar seed number on query").withOptionalArg().ofType(Integer.class).defaultsTo(10);
+		parser.accepts("seedchain", "Chain colinear seeds and extend only the seeds not covered by the extension of their chain.").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("seedindex", "Seed index file built by SeedIndexFile. The index is memory-mapped instead of being built on every run.").withRequiredArg().ofType(String.class);
 		SeedDatabase.assignOptions(parser, level + 1);
+		SeedExtension.assignOptions(parser, level + 1);
 	}
 
 	public static void main(String[] args) throws IOException, MapperConstructionException {
@@ -0,0 +1,192 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.omblastmapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.mapper.seeding.Seed;
+import aldenjava.opticalmapping.miscellaneous.Copyable;
+
+/**
+ * A class for grouping colinear seeds into chains, such that seeds from the same alignment do not need to be extended separately. Seeds are chained by a sparse dynamic programming on the positions of seeds in base pairs.
+ * 
+ * @author Alden
+ *
+ */
+public class SeedChaining implements Copyable<SeedChaining> {
+	private final LinkedHashMap<String, DataNode> optrefmap;
+	private int measure = 500;
+	private double ear = 0.05;
+	private int maxPredecessor = 50;
+
+	/**
+	 * Constructs a <code>SeedChaining</code> module with the reference information
+	 * 
+	 * @param optrefmap
+	 *            the reference information
+	 */
+	public SeedChaining(LinkedHashMap<String, DataNode> optrefmap) {
+		this.optrefmap = optrefmap;
+	}
+
+	public void setParameters(int measure, double ear) {
+		this.measure = measure;
+		this.ear = ear;
+	}
+
+	/**
+	 * Groups the seeds into colinear chains. Two seeds are colinear if both data and reference positions increase, and the distance between them on the data is within the scaling range of the distance on the reference. Each chain is sorted by data position, and the chains are sorted in descending order of chain score
+	 * 
+	 * @param data
+	 *            <code>data</code> from which the seeds are obtained
+	 * @param seedList
+	 *            seeds on one strand of <code>data</code>
+	 * @return chains of seeds
+	 */
+	public List<List<Seed>> chain(DataNode data, List<Seed> seedList) {
+		List<Seed> sortedSeedList = new ArrayList<Seed>(seedList);
+		Collections.sort(sortedSeedList, new Comparator<Seed>() {
+			@Override
+			public int compare(Seed s1, Seed s2) {
+				int now = s1.source.compareTo(s2.source);
+				if (now != 0)
+					return now;
+				now = Integer.compare(s1.kmerpointer.pos, s2.kmerpointer.pos);
+				if (now != 0)
+					return now;
+				return Integer.compare(s1.pos, s2.pos);
+			}
+		});
+		int n = sortedSeedList.size();
+		long[] refbp = new long[n];
+		long[] databp = new long[n];
+		int[] score = new int[n];
+		int[] parent = new int[n];
+		int groupStart = 0;
+		for (int i = 0; i < n; i++) {
+			Seed seed = sortedSeedList.get(i);
+			if (i > 0 && !seed.source.equals(sortedSeedList.get(i - 1).source))
+				groupStart = i;
+			refbp[i] = optrefmap.get(seed.source).refp[seed.pos - 1];
+			databp[i] = data.refp[seed.kmerpointer.pos - 1];
+			score[i] = seed.kmerpointer.k();
+			parent[i] = -1;
+			for (int j = i - 1; j >= groupStart && j >= i - maxPredecessor; j--) {
+				Seed prevSeed = sortedSeedList.get(j);
+				int datagap = seed.kmerpointer.pos - prevSeed.kmerpointer.pos;
+				int refgap = seed.pos - prevSeed.pos;
+				if (datagap <= 0 || refgap <= 0)
+					continue;
+				double lbound = Math.max(seed.rangeLBound, prevSeed.rangeLBound);
+				double ubound = Math.min(seed.rangeUBound, prevSeed.rangeUBound);
+				long refdist = refbp[i] - refbp[j];
+				long datadist = databp[i] - databp[j];
+				if (datadist < refdist * lbound - measure || datadist > refdist * ubound + measure)
+					continue;
+				int gain = Math.min(Math.min(datagap, refgap), prevSeed.kmerpointer.k()) - Math.abs(datagap - refgap);
+				if (gain > 0 && score[j] + gain > score[i]) {
+					score[i] = score[j] + gain;
+					parent[i] = j;
+				}
+			}
+		}
+
+		// Backtrack from the highest scoring seed not yet in a chain
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		final int[] finalScore = score;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Integer.compare(finalScore[i2], finalScore[i1]);
+			}
+		});
+		boolean[] used = new boolean[n];
+		List<List<Seed>> chainList = new ArrayList<List<Seed>>();
+		for (int i : order) {
+			if (used[i])
+				continue;
+			List<Seed> chain = new ArrayList<Seed>();
+			for (int j = i; j != -1 && !used[j]; j = parent[j]) {
+				used[j] = true;
+				chain.add(sortedSeedList.get(j));
+			}
+			Collections.reverse(chain);
+			chainList.add(chain);
+		}
+		return chainList;
+	}
+
+	/**
+	 * Estimates the scaling range of a chain from the distances between its first and last seeds, which is much narrower than the scaling range of a single seed
+	 * 
+	 * @param data
+	 *            <code>data</code> from which the seeds are obtained
+	 * @param chain
+	 *            a chain of seeds sorted by data position
+	 * @return the lower and upper bound of scaling factor
+	 */
+	public double[] getScaleRange(DataNode data, List<Seed> chain) {
+		Seed first = chain.get(0);
+		Seed last = chain.get(chain.size() - 1);
+		long[] refp = optrefmap.get(first.source).refp;
+		long refdist = refp[last.pos + last.k() - 1] - refp[first.pos - 1];
+		long datadist = data.refp[last.kmerpointer.pos + last.kmerpointer.k() - 1] - data.refp[first.kmerpointer.pos - 1];
+		double scale = datadist / (double) refdist;
+		double range = Math.min(ear, 2.0 * measure / refdist);
+		return new double[] {scale - range, scale + range};
+	}
+
+	/**
+	 * Returns the anchor of a chain, which is the seed in the middle of the chain
+	 * 
+	 * @param chain
+	 *            a chain of seeds sorted by data position
+	 * @return the anchor seed
+	 */
+	public static Seed getAnchor(List<Seed> chain) {
+		return chain.get(chain.size() / 2);
+	}
+
+	@Override
+	public SeedChaining copy() {
+		SeedChaining newsc = new SeedChaining(optrefmap);
+		newsc.setParameters(measure, ear);
+		return newsc;
+	}
+}
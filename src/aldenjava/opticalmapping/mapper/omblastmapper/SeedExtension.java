@@ -32,11 +32,15 @@ package aldenjava.opticalmapping.mapper.omblastmapper;
 
 import java.util.LinkedHashMap;
 
+import joptsimple.OptionSet;
+import aldenjava.opticalmapping.Cigar;
 import aldenjava.opticalmapping.data.data.DataNode;
 import aldenjava.opticalmapping.mapper.ExtensionResult;
 import aldenjava.opticalmapping.mapper.seeding.Kmer;
 import aldenjava.opticalmapping.mapper.seeding.Seed;
 import aldenjava.opticalmapping.miscellaneous.Copyable;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+import aldenjava.opticalmapping.miscellaneous.SelectableMode;
 
 /**
  * A class for extending the data from a matched seed
@@ -44,8 +48,9 @@ import aldenjava.opticalmapping.miscellaneous.Copyable;
  * @author Alden
  * 
  */
-public class SeedExtension implements Copyable<SeedExtension> {
+public class SeedExtension implements Copyable<SeedExtension>, SelectableMode {
 	private final LinkedHashMap<String, DataNode> optrefmap;
+	private int extensionmode = 1;
 	private int measure = 500;
 	private int matchscore = 5;
 	private int falseppenalty = 2;
@@ -53,6 +58,11 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	private int falselimit = 5;
 	private double ear = 0.05;
 	private boolean allowLocalAlignment;
+	private final ExtensionBuffer leftBuffer = new ExtensionBuffer();
+	private final ExtensionBuffer rightBuffer = new ExtensionBuffer();
+	private boolean bandedExtension = false;
+	private final BandedExtension bandedExtensionEngine = new BandedExtension();
+	private ExtensionCache extensionCache = null;
 
 	/**
 	 * Constructs a <code>SeedExtension</code> module with the reference information
@@ -64,6 +74,20 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		this.optrefmap = optrefmap;
 	}
 
+	public void setMode(OptionSet options) {
+		setMode((int) options.valueOf("extensionmode"));
+	}
+
+	@Override
+	public void setMode(int mode) {
+		this.extensionmode = mode;
+	}
+
+	@Override
+	public int getMode() {
+		return extensionmode;
+	}
+
 	public void setParameters(int measure, double ear, int matchscore, int falseppenalty, int falsenpenalty, int falselimit, boolean allowLocalAlignment) {
 		this.measure = measure;
 		this.matchscore = matchscore;
@@ -72,6 +96,41 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		this.falselimit = falselimit;
 		this.ear = ear;
 		this.allowLocalAlignment = allowLocalAlignment;
+		this.bandedExtensionEngine.setParameters(measure, matchscore, falseppenalty, falsenpenalty, falselimit);
+	}
+
+	/**
+	 * Uses banded dynamic programming instead of greedy extension. Banded dynamic programming is only applied in local alignment.
+	 * 
+	 * @param bandedExtension
+	 *            <code>true</code> to use banded dynamic programming extension
+	 * @see BandedExtension
+	 */
+	public void setBandedExtension(boolean bandedExtension) {
+		this.bandedExtension = bandedExtension;
+	}
+
+	/**
+	 * Caches the one-sided extensions of the same data, such that overlapping seeds reuse the extensions from the same initial positions. The scale of extension is quantized to <code>scalestep</code> when the cache is enabled. The cache should be cleared by <code>clearExtensionCache</code> before extending another data.
+	 * 
+	 * @param maxsize
+	 *            maximum number of cached extensions; 0 to disable the cache
+	 * @param scalestep
+	 *            step for quantizing the scale; 0 to use the exact scale
+	 */
+	public void setExtensionCache(int maxsize, double scalestep) {
+		if (maxsize > 0)
+			this.extensionCache = new ExtensionCache(maxsize, scalestep);
+		else
+			this.extensionCache = null;
+	}
+
+	/**
+	 * Clears the cached extensions
+	 */
+	public void clearExtensionCache() {
+		if (extensionCache != null)
+			extensionCache.clear();
 	}
 
 	/**
@@ -92,32 +151,65 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 * @return the result of extension
 	 */
 	public ExtensionResult extendCore(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale) {
-		int refstartpos = -1;
-		int fragmentstartpos = -1;
+		ExtensionBuffer buffer = new ExtensionBuffer();
+		extendCore(ref, data, initialrefpos, initialdatapos, direction, scale, buffer);
+		return new ExtensionResult(ref.name, initialrefpos, initialdatapos, buffer.stoprefpos, buffer.stopfragmentpos, buffer.toPrecigar(), buffer.score, scale);
+	}
+
+	/**
+	 * Extends the data on reference using a scale <code>ratio</code> from the initial position. Alignment operations are written to <code>buffer</code> without constructing the precigar
+	 * 
+	 * @param ref
+	 *            the reference information
+	 * @param data
+	 *            alignment of <code>data</code> to be extended according to <code>seed</code>
+	 * @param initialrefpos
+	 *            the initial reference position
+	 * @param initialdatapos
+	 *            the initial data position
+	 * @param direction
+	 *            progressing steps
+	 * @param scale
+	 *            the scale for extension
+	 * @param buffer
+	 *            the buffer storing the result of extension
+	 */
+	void extendCore(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionBuffer buffer) {
+		if (extensionCache != null) {
+			scale = extensionCache.quantize(scale);
+			if (extensionCache.load(ref.name, initialrefpos, initialdatapos, direction, scale, buffer))
+				return;
+		}
+		if (bandedExtension && allowLocalAlignment)
+			bandedExtensionEngine.extend(ref, data, initialrefpos, initialdatapos, direction, scale, buffer);
+		else
+			extendGreedy(ref, data, initialrefpos, initialdatapos, direction, scale, buffer);
+		if (extensionCache != null)
+			extensionCache.store(ref.name, initialrefpos, initialdatapos, direction, scale, buffer);
+	}
+
+	private void extendGreedy(DataNode ref, DataNode data, int initialrefpos, int initialdatapos, int direction, double scale, ExtensionBuffer buffer) {
 		int score = matchscore; // Now any matching signals count, not any
 								// matching subfragment counts
-		int highestscore = 0;
 		int refpos = initialrefpos;
 		int datapos = initialdatapos;
 		int err = 0;
 		double cumulatefragmentlen = 0;
 		double cumulatereflen = 0;
 
-		StringBuilder precigar = new StringBuilder();
-		StringBuilder tmpcigar = new StringBuilder();
+		buffer.reset(direction);
 		do {
 			if (Math.abs(cumulatereflen - cumulatefragmentlen) <= measure) {
 				score += matchscore;
-				tmpcigar.append("M");
+				buffer.add(ExtensionBuffer.MATCH);
 				// double tshift = cumulatefragmentlen - cumulatereflen;
 				// longer is allowed!
-				if (score > highestscore || !allowLocalAlignment) // go ahead!! Onlyhigher score and longer is allowed!
+				if (score > buffer.score || !allowLocalAlignment) // go ahead!! Onlyhigher score and longer is allowed!
 				{
-					refstartpos = refpos;
-					fragmentstartpos = datapos;
-					highestscore = score;
-					precigar.append(tmpcigar);
-					tmpcigar = new StringBuilder();
+					buffer.stoprefpos = refpos;
+					buffer.stopfragmentpos = datapos;
+					buffer.score = score;
+					buffer.commit();
 				}
 				datapos += direction;
 				refpos += direction;
@@ -131,19 +223,18 @@ public class SeedExtension implements Copyable<SeedExtension> {
 					datapos += direction;
 					score -= falseppenalty;
 					cumulatefragmentlen += data.getRefl(datapos) + 1;
-					tmpcigar.append("I");
+					buffer.add(ExtensionBuffer.FALSEP);
 				} else // falsen
 				{
 					err++;
 					refpos += direction;
 					score -= falsenpenalty;
 					cumulatereflen += (ref.getRefl(refpos) + 1) * scale;
-					tmpcigar.append("D");
+					buffer.add(ExtensionBuffer.FALSEN);
 				}
 				if (!allowLocalAlignment) {
-					highestscore = score;
-					precigar.append(tmpcigar);
-					tmpcigar = new StringBuilder();
+					buffer.score = score;
+					buffer.commit();
 				}
 			}
 
@@ -250,10 +341,6 @@ public class SeedExtension implements Copyable<SeedExtension> {
 		// }
 		// precigar.append(tmpcigar);
 		// }
-		if (direction == -1)
-			precigar.reverse();
-		return new ExtensionResult(ref.name, initialrefpos, initialdatapos, refstartpos, fragmentstartpos, precigar.toString(), highestscore, scale);
-
 	}
 
 	/**
@@ -272,36 +359,20 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 * @return
 	 */
 	public ExtensionResult extensionLoop(DataNode data, Seed seed, double startscale, double ear, int times) {
-		Kmer refKmer = seed;
-		Kmer dataKmer = seed.kmerpointer;
-		DataNode ref = optrefmap.get(refKmer.source);
+		DataNode ref = optrefmap.get(seed.source);
 		double highestscore = 0;
 		ExtensionResult combinedExtension = null;
 		double highestratio = -1;
+		Cigar seedcigar = seed.getCigar(false);
+		double seedscore = seedcigar.calcScore(matchscore, falseppenalty, falsenpenalty);
 		for (double ratio = startscale - ear; ratio <= startscale + ear; ratio += ear / 2) {
-			ExtensionResult leftExtension = this.extendCore(ref, data, refKmer.pos, dataKmer.pos, -1, ratio);
-			ExtensionResult rightExtension = this.extendCore(ref, data, refKmer.pos + refKmer.k() + refKmer.getErrorNo() - 1, dataKmer.pos + dataKmer.k() + dataKmer.getErrorNo() - 1, 1, ratio);
-			// module for refining scale at global alignment; no longer used as we now define the starting position to be the first matched signal
-			double refinedratio = data.length(leftExtension.stopfinalfragmentpos, rightExtension.stopfinalfragmentpos)
-					/ (double) ref.length(leftExtension.stopfinalrefpos, rightExtension.stopfinalrefpos);
-
-			double finalscore = (leftExtension.score + rightExtension.score + seed.getCigar(false).calcScore(matchscore, falseppenalty, falsenpenalty)) * (1 - Math.abs((1 - refinedratio)));
+			double finalscore = extendAtScale(ref, data, seed, seedscore, ratio);
 			if (combinedExtension == null
 					|| finalscore > highestscore
-					|| (finalscore == highestscore && (rightExtension.stopfinalfragmentpos - leftExtension.stopfinalfragmentpos + 1) > (combinedExtension.stopfinalfragmentpos
+					|| (finalscore == highestscore && (rightBuffer.stopfragmentpos - leftBuffer.stopfragmentpos + 1) > (combinedExtension.stopfinalfragmentpos
 							- combinedExtension.startfinalfragmentpos + 1))) {
-				StringBuilder finalprecigar = new StringBuilder();
-				finalprecigar.append(leftExtension.precigar);
-
-				finalprecigar.append(seed.getCigar(false).getPrecigar());
-
-				finalprecigar.append(rightExtension.precigar);
-
-				ExtensionResult tmpExtension = new ExtensionResult(ref.name, leftExtension.stopfinalrefpos, leftExtension.stopfinalfragmentpos, rightExtension.stopfinalrefpos,
-						rightExtension.stopfinalfragmentpos, finalprecigar.toString(), finalscore, refinedratio);
-
 				highestscore = finalscore;
-				combinedExtension = tmpExtension;
+				combinedExtension = toExtensionResult(ref, data, seedcigar, finalscore);
 				highestratio = ratio;
 			}
 			if (ear == 0)
@@ -314,6 +385,163 @@ public class SeedExtension implements Copyable<SeedExtension> {
 
 	}
 
+	/**
+	 * Extends the data on both sides of the <code>seed</code> using a scale <code>ratio</code>. The left and right extensions are kept in <code>leftBuffer</code> and <code>rightBuffer</code>. The score of the combined extension is penalized by the deviation of the overall scale of the extension from 1
+	 * 
+	 * @param ref
+	 *            the reference of the <code>seed</code>
+	 * @param data
+	 *            alignment of <code>data</code> to be extended according to <code>seed</code>
+	 * @param seed
+	 *            as the start point of extension
+	 * @param seedscore
+	 *            score of the cigar of the <code>seed</code>
+	 * @param ratio
+	 *            the scale for extension
+	 * @return the score of the combined extension
+	 */
+	private double extendAtScale(DataNode ref, DataNode data, Seed seed, double seedscore, double ratio) {
+		Kmer refKmer = seed;
+		Kmer dataKmer = seed.kmerpointer;
+		this.extendCore(ref, data, refKmer.pos, dataKmer.pos, -1, ratio, leftBuffer);
+		this.extendCore(ref, data, refKmer.pos + refKmer.k() + refKmer.getErrorNo() - 1, dataKmer.pos + dataKmer.k() + dataKmer.getErrorNo() - 1, 1, ratio, rightBuffer);
+		return (leftBuffer.score + rightBuffer.score + seedscore) * (1 - Math.abs((1 - getExtendedScale(ref, data))));
+	}
+
+	/**
+	 * Returns the overall scale of the combined extension in <code>leftBuffer</code> and <code>rightBuffer</code>
+	 * 
+	 * @param ref
+	 *            the reference of the extension
+	 * @param data
+	 *            the extended data
+	 * @return the overall scale of the combined extension
+	 */
+	private double getExtendedScale(DataNode ref, DataNode data) {
+		// module for refining scale at global alignment; no longer used as we now define the starting position to be the first matched signal
+		return data.length(leftBuffer.stopfragmentpos, rightBuffer.stopfragmentpos) / (double) ref.length(leftBuffer.stoprefpos, rightBuffer.stoprefpos);
+	}
+
+	/**
+	 * Constructs the extension result from the combined extension in <code>leftBuffer</code> and <code>rightBuffer</code>. The precigar is only constructed here, so that it is not built for extensions that are discarded
+	 * 
+	 * @param ref
+	 *            the reference of the extension
+	 * @param data
+	 *            the extended data
+	 * @param seedcigar
+	 *            cigar of the seed
+	 * @param score
+	 *            score of the combined extension
+	 * @return the extension result
+	 */
+	private ExtensionResult toExtensionResult(DataNode ref, DataNode data, Cigar seedcigar, double score) {
+		StringBuilder finalprecigar = new StringBuilder(leftBuffer.length() + seedcigar.length() + rightBuffer.length());
+		leftBuffer.appendTo(finalprecigar);
+		seedcigar.appendTo(finalprecigar);
+		rightBuffer.appendTo(finalprecigar);
+		return new ExtensionResult(ref.name, leftBuffer.stoprefpos, leftBuffer.stopfragmentpos, rightBuffer.stoprefpos, rightBuffer.stopfragmentpos, finalprecigar.toString(), score,
+				getExtendedScale(ref, data));
+	}
+
+	/**
+	 * Estimates the scaling factor of the <code>seed</code> by a least-squares fit of the data segment sizes against the reference segment sizes. The estimate is bounded by the scaling range of the <code>seed</code>
+	 * 
+	 * @param seed
+	 *            the seed
+	 * @return the estimated scaling factor
+	 * @see #estimateScale(Seed, double, double)
+	 */
+	public double estimateScale(Seed seed) {
+		return estimateScale(seed, seed.rangeUBound, seed.rangeLBound);
+	}
+
+	/**
+	 * Estimates the scaling factor of the <code>seed</code> by a least-squares fit of the data segment sizes against the reference segment sizes. The estimate is bounded by the given scaling range, or by the error acceptable range if no scaling range is given
+	 * 
+	 * @param seed
+	 *            the seed
+	 * @param rangeUBound
+	 *            scaling range upper bound; -1 if unavailable
+	 * @param rangeLBound
+	 *            scaling range lower bound; -1 if unavailable
+	 * @return the estimated scaling factor
+	 */
+	public double estimateScale(Seed seed, double rangeUBound, double rangeLBound) {
+		double sumrefdata = 0;
+		double sumrefref = 0;
+		for (int i = 0; i < seed.k(); i++) {
+			sumrefdata += (double) seed.get(i) * seed.kmerpointer.get(i);
+			sumrefref += (double) seed.get(i) * seed.get(i);
+		}
+		double lbound = 1 - ear;
+		double ubound = 1 + ear;
+		if (rangeUBound != -1 && rangeLBound != -1) {
+			lbound = rangeLBound;
+			ubound = rangeUBound;
+		}
+		if (sumrefref == 0)
+			return (lbound + ubound) / 2;
+		double scale = sumrefdata / sumrefref;
+		if (scale < lbound)
+			scale = lbound;
+		if (scale > ubound)
+			scale = ubound;
+		return scale;
+	}
+
+	/**
+	 * Extends the <code>data</code> using the scale estimated from the <code>seed</code>. The scale is then refined to the overall scale of the extension, but only if the refinement moves the end of the extension by more than half of the measurement error. Refinement stops once the same alignment is obtained again, as the refined scale is then unchanged, or after <code>times</code> rounds
+	 * 
+	 * @param data
+	 *            alignment of <code>data</code> to be extended according to <code>seed</code>
+	 * @param seed
+	 *            as the start point of extension
+	 * @param times
+	 *            maximum number of extensions
+	 * @return the best extension result
+	 * @see #estimateScale(Seed)
+	 */
+	public ExtensionResult extensionByEstimatedScale(DataNode data, Seed seed, int times) {
+		return extensionByEstimatedScale(data, seed, seed.rangeUBound, seed.rangeLBound, times);
+	}
+
+	/**
+	 * Same as {@link #extensionByEstimatedScale(DataNode, Seed, int)}, but the initial scale estimate is bounded by the given scaling range instead of the scaling range of the <code>seed</code>
+	 * 
+	 * @param data
+	 *            alignment of <code>data</code> to be extended according to <code>seed</code>
+	 * @param seed
+	 *            as the start point of extension
+	 * @param rangeUBound
+	 *            scaling range upper bound; -1 if unavailable
+	 * @param rangeLBound
+	 *            scaling range lower bound; -1 if unavailable
+	 * @param times
+	 *            maximum number of extensions
+	 * @return the best extension result
+	 * @see #estimateScale(Seed, double, double)
+	 */
+	public ExtensionResult extensionByEstimatedScale(DataNode data, Seed seed, double rangeUBound, double rangeLBound, int times) {
+		DataNode ref = optrefmap.get(seed.source);
+		Cigar seedcigar = seed.getCigar(false);
+		double seedscore = seedcigar.calcScore(matchscore, falseppenalty, falsenpenalty);
+		double scale = estimateScale(seed, rangeUBound, rangeLBound);
+		ExtensionResult combinedExtension = null;
+		for (int round = 0; round < times; round++) {
+			double finalscore = extendAtScale(ref, data, seed, seedscore, scale);
+			if (combinedExtension == null
+					|| finalscore > combinedExtension.score
+					|| (finalscore == combinedExtension.score && (rightBuffer.stopfragmentpos - leftBuffer.stopfragmentpos) > (combinedExtension.stopfinalfragmentpos - combinedExtension.startfinalfragmentpos)))
+				combinedExtension = toExtensionResult(ref, data, seedcigar, finalscore);
+			double refinedscale = getExtendedScale(ref, data);
+			if (Double.isNaN(refinedscale) || Math.abs(refinedscale - scale) * ref.length(leftBuffer.stoprefpos, rightBuffer.stoprefpos) <= measure / 2.0)
+				break;
+			scale = refinedscale;
+		}
+		return combinedExtension;
+	}
+
 	/**
 	 * Extends the <code>data</code> according to the given <code>seed</code>. Scaling range bound is set according to the seed information. Note that the boundary is not a strict boundary but an initial guess for the scaling factor
 	 * 
@@ -328,10 +556,17 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	 * @return the result of extension
 	 */
 	public ExtensionResult extension(DataNode data, Seed seed, double rangeUBound, double rangeLBound) {
-		if (seed.rangeUBound == -1 || seed.rangeLBound == -1)
-			return extensionLoop(data, seed, 1, ear, 3);
-		else
-			return extensionLoop(data, seed, (rangeUBound + rangeLBound) / 2, (rangeUBound - rangeLBound) / 2, 3);
+		switch (extensionmode) {
+			case 1:
+				if (seed.rangeUBound == -1 || seed.rangeLBound == -1)
+					return extensionLoop(data, seed, 1, ear, 3);
+				else
+					return extensionLoop(data, seed, (rangeUBound + rangeLBound) / 2, (rangeUBound - rangeLBound) / 2, 3);
+			case 2:
+				return extensionByEstimatedScale(data, seed, rangeUBound, rangeLBound, 3);
+			default:
+				throw new IllegalArgumentException("Selected extension mode does not exist");
+		}
 	}
 
 	/**
@@ -351,7 +586,19 @@ public class SeedExtension implements Copyable<SeedExtension> {
 	@Override
 	public SeedExtension copy() {
 		SeedExtension newse = new SeedExtension(optrefmap);
+		newse.setMode(extensionmode);
 		newse.setParameters(measure, ear, matchscore, falseppenalty, falsenpenalty, falselimit, allowLocalAlignment);
+		newse.setBandedExtension(bandedExtension);
+		if (extensionCache != null)
+			newse.setExtensionCache(extensionCache.getMaxSize(), extensionCache.getScaleStep());
 		return newse;
 	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Extension Options", level);
+		parser.accepts("extensionmode", "Extension mode: 1: Scale search around the seed scaling range; 2: Scale estimated from the seed by least squares, refined only when the alignment is sensitive to scale").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+		parser.accepts("bandedext", "Use banded dynamic programming instead of greedy extension, such that the best path of matched signals is chosen. Only applied in local alignment.").withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		parser.accepts("extcache", "Maximum number of one-sided extensions cached for each data strand, such that overlapping seeds reuse previous extensions. 0: Cache disabled").withOptionalArg().ofType(Integer.class).defaultsTo(0);
+		parser.accepts("extcachestep", "Step for quantizing the scale of cached extensions. 0: Exact scale").withOptionalArg().ofType(Double.class).defaultsTo(0.0001);
+	}
 }
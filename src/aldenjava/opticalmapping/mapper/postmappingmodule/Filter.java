@@ -75,6 +75,7 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 	 * @param optrefmap the reference information
 	 */
 	public Filter(LinkedHashMap<String, DataNode> optrefmap) {
+		this.optrefmap = optrefmap;
 	}
 
 	/**
@@ -131,32 +132,40 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 	 * @return <code>true</code> if the result passes the filtering criteria
 	 */
 	private boolean checkPass(OptMapResultNode result) {
-		return (result.mappedscore >= minscore 
-		&& result.getSubFragRatio() >= minsubfragratio 
-		&& result.getMatch() >= minmatch // this match is based on total match of signal. Not used for calculating match score, which equals to (matched signal - 1) * matchscore
-		&& result.getFP() <= maxfp 
-		&& result.getFN() <= maxfn 
-		&& result.getFPRate() <= maxfpr 
-		&& result.getFNRate() <= maxfnr 
-		&& result.getMapSigRatio() >= minsigratio);
+		return checkPass(new ResultStatistics(result));
 	}
 
 	/**
-	 * Checks if the result passes some selected filtering criteria which cannot be rescued even by trimming.
+	 * Checks if the statistics of a result, or a trimmed result, pass the filtering criteria
 	 * 
-	 * @param result 
-	 * 				the result to be checked
-	 * @return <code>true</code> if the result passes the selected filtering criteria
+	 * @param statistics
+	 *            the statistics to be checked
+	 * @return <code>true</code> if the statistics pass the filtering criteria
 	 */
-	private boolean checkPassChanceWithTrim(OptMapResultNode result) {
-		return (result.mappedscore >= minscore 
-				&& result.getSubFragRatio() >= minsubfragratio 
-				&& result.getMatch() >= minmatch 
-				&& result.getMapSigRatio() >= minsigratio);
+	private boolean checkPass(FilterStatistics statistics) {
+		return (checkPassChanceWithTrim(statistics)
+		&& statistics.getFP() <= maxfp 
+		&& statistics.getFN() <= maxfn 
+		&& statistics.getFPRate() <= maxfpr 
+		&& statistics.getFNRate() <= maxfnr);
 	}
 
 	/**
-	 * Trims the result so that it can pass the filtering criteria. 
+	 * Checks if the statistics of a result, or a trimmed result, pass some selected filtering criteria which cannot be rescued even by trimming.
+	 * 
+	 * @param statistics 
+	 * 				the statistics to be checked
+	 * @return <code>true</code> if the statistics pass the selected filtering criteria
+	 */
+	private boolean checkPassChanceWithTrim(FilterStatistics statistics) {
+		return (statistics.getMappedScore() >= minscore 
+				&& statistics.getSubFragRatio() >= minsubfragratio 
+				&& statistics.getMatch() >= minmatch // this match is based on total match of signal. Not used for calculating match score, which equals to (matched signal - 1) * matchscore
+				&& statistics.getMapSigRatio() >= minsigratio);
+	}
+
+	/**
+	 * Trims the result so that it can pass the filtering criteria. Each trimmed result is evaluated by <code>TrimEvaluator</code>, and only the best trimmed result is constructed.
 	 * 
 	 * @param result
 	 *              the result to be trimmed and checked
@@ -164,7 +173,7 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 	 */
 	private OptMapResultNode trimToPassFilter(OptMapResultNode result) {
 		if (optrefmap == null)
-			; // Should do something on it like throwing an exception
+			throw new IllegalStateException("Reference information is required for trimming");
 		
 		int maxTrim = this.maxTrim;
 		if (maxTrim > result.getMatch() - minmatch)
@@ -172,20 +181,22 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 		if (maxTrim < 0)
 			return null;
 		boolean[][] trimPair = new boolean[maxTrim + 1][maxTrim + 1];
-		OptMapResultNode finalMap = null;
+		TrimEvaluator map = new TrimEvaluator(result, optrefmap.get(result.mappedRegion.ref));
+		int finalLeftTrim = -1;
+		int finalRightTrim = -1;
+		double finalScore = 0;
 		for (int trim = 0; trim <= maxTrim; trim++) {
 			for (int leftTrim = 0; leftTrim <= trim; leftTrim++) {
 				int rightTrim = trim - leftTrim;
 				if (trimPair[leftTrim][rightTrim])
 					continue;
-				OptMapResultNode map = new OptMapResultNode(result);
-				map.trimResult(leftTrim, optrefmap);
-				map.trimResult(rightTrim * -1, optrefmap);
-				map.updateMappedRegion(optrefmap.get(map.mappedRegion.ref));
-				map.updateScore(optrefmap, match, fpp, fnp);
+				map.evaluate(leftTrim, rightTrim, match, fpp, fnp);
 				if (checkPass(map)) {
-					if (finalMap == null || finalMap.mappedscore < map.mappedscore)
-						finalMap = map;
+					if (finalLeftTrim == -1 || finalScore < map.mappedscore) {
+						finalLeftTrim = leftTrim;
+						finalRightTrim = rightTrim;
+						finalScore = map.mappedscore;
+					}
 					// No need to trim further
 					for (int i = leftTrim + 1; i <= maxTrim; i++)
 						for (int j = rightTrim + 1; j <= maxTrim; j++)
@@ -199,6 +210,13 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 				}
 			}
 		}
+		if (finalLeftTrim == -1)
+			return null;
+		OptMapResultNode finalMap = new OptMapResultNode(result);
+		finalMap.trimResult(finalLeftTrim, optrefmap);
+		finalMap.trimResult(finalRightTrim * -1, optrefmap);
+		finalMap.updateMappedRegion(optrefmap.get(finalMap.mappedRegion.ref));
+		finalMap.updateScore(optrefmap, match, fpp, fnp);
 		return finalMap;
 	}
 	/**
@@ -293,4 +311,55 @@ public class Filter implements Copyable<Filter>, SelectableMode {
 		parser.accepts("fnp", "False Negative Penalty").withOptionalArg().ofType(Integer.class).defaultsTo(2);
 	}
 
+	/**
+	 * Provides the statistics of a result for checking against the filtering criteria
+	 */
+	private static class ResultStatistics implements FilterStatistics {
+		private final OptMapResultNode result;
+
+		ResultStatistics(OptMapResultNode result) {
+			this.result = result;
+		}
+
+		@Override
+		public double getMappedScore() {
+			return result.mappedscore;
+		}
+
+		@Override
+		public double getSubFragRatio() {
+			return result.getSubFragRatio();
+		}
+
+		@Override
+		public int getMatch() {
+			return result.getMatch();
+		}
+
+		@Override
+		public int getFP() {
+			return result.getFP();
+		}
+
+		@Override
+		public int getFN() {
+			return result.getFN();
+		}
+
+		@Override
+		public double getFPRate() {
+			return result.getFPRate();
+		}
+
+		@Override
+		public double getFNRate() {
+			return result.getFNRate();
+		}
+
+		@Override
+		public double getMapSigRatio() {
+			return result.getMapSigRatio();
+		}
+	}
+
 }
@@ -30,40 +30,26 @@
 
 package aldenjava.opticalmapping.mapper.postmappingmodule;
 
-import java.util.List;
+/**
+ * The statistics of a result checked by <code>Filter</code>. Both the results and the trimmed results evaluated by <code>TrimEvaluator</code> are checked through this interface, so that the filtering criteria are defined in one place.
+ * 
+ * @author Alden
+ *
+ */
+interface FilterStatistics {
+	double getMappedScore();
 
-import aldenjava.opticalmapping.Cigar;
+	double getSubFragRatio();
 
-public class PostJoinPathEdge
-{
-	public static int falseppenalty = 2;
-	public static int falsenpenalty = 2;
-	public final int deletion;
-	public final int insertion;
-	public final PostJoinPathNode nextNode;
-	public final String localprecigar;
-	public PostJoinPathEdge(String localprecigar, PostJoinPathNode nextNode)
-	{
-		this.insertion = Cigar.getCertainNumberFromPrecigar(localprecigar, 'I');
-		this.deletion = Cigar.getCertainNumberFromPrecigar(localprecigar, 'D');
-		this.localprecigar = localprecigar;
-		this.nextNode = nextNode;
-	}
-	public boolean equals(PostJoinPathEdge edge)
-	{
-		return (this.deletion == edge.deletion && this.insertion == edge.insertion && this.nextNode == edge.nextNode); //this.nextNode == edge.nextNode is correct, because we are checking for index and no overlap Node can be found
-	}
-	public List<Integer> process(int pass)
-	{
-//		System.out.println("PathEdge process...");
-		return nextNode.process(pass);
-	}
-	
-	public double getScore()
-	{
-		return nextNode.bestscore - insertion * falseppenalty - deletion * falsenpenalty;
-	}
-	
-	
-	public static PostJoinPathEdge endEdge = new PostJoinPathEdge("", null);
+	int getMatch();
+
+	int getFP();
+
+	int getFN();
+
+	double getFPRate();
+
+	double getFNRate();
+
+	double getMapSigRatio();
 }
@@ -0,0 +1,409 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.postmappingmodule;
+
+import java.util.Arrays;
+
+import aldenjava.opticalmapping.Cigar;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * The directed graph for joining overlapping partial alignments. Each node is a matched pair of reference and fragment positions, and each edge carries the insertions and deletions between two adjacent matches. Nodes are found from (refpos, fragpos) by a primitive hash map, and nodes, edges and the passing start nodes are stored in primitive arrays.
+ * 
+ * @author Alden
+ *
+ */
+class PostJoinGraph {
+	private static final int NO_EDGE = -1;
+	private static final int END_EDGE = -2;
+
+	private final int direction;
+	private final boolean allowLocalAlignment;
+	private final int matchscore;
+	private final int falseppenalty;
+	private final int falsenpenalty;
+
+	// (refpos, fragpos) -> node
+	private long[] hashkey;
+	private int[] hashnode;
+	private int hashmask;
+
+	// Nodes
+	private int nodecount;
+	private int[] refpos;
+	private int[] fragpos;
+	private boolean[] isStart; // not a child of any node
+	private int[] firstEdge;
+	private int[] lastEdge;
+	private double[] bestscore;
+	private int[] bestedge;
+	private int[][] passlist;
+	private int[] passcount;
+
+	// Edges
+	private int edgecount;
+	private int[] edgeNext;
+	private int[] edgeTarget;
+	private int[] edgeInsertion;
+	private int[] edgeDeletion;
+	private String[] edgePrecigar;
+
+	/**
+	 * Creates an empty graph.
+	 * 
+	 * @param direction
+	 *            mapped strand of the partial alignments
+	 * @param allowLocalAlignment
+	 *            <code>false</code> if the unmatched labels at the two ends of the partial alignments are ignored
+	 * @param matchscore
+	 *            score for one label match
+	 * @param falseppenalty
+	 *            false positive penalty
+	 * @param falsenpenalty
+	 *            false negative penalty
+	 */
+	PostJoinGraph(int direction, boolean allowLocalAlignment, int matchscore, int falseppenalty, int falsenpenalty) {
+		this.direction = direction;
+		this.allowLocalAlignment = allowLocalAlignment;
+		this.matchscore = matchscore;
+		this.falseppenalty = falseppenalty;
+		this.falsenpenalty = falsenpenalty;
+		hashkey = new long[64];
+		hashnode = new int[64];
+		Arrays.fill(hashnode, -1);
+		hashmask = 63;
+		refpos = new int[16];
+		fragpos = new int[16];
+		isStart = new boolean[16];
+		firstEdge = new int[16];
+		lastEdge = new int[16];
+		bestscore = new double[16];
+		bestedge = new int[16];
+		passlist = new int[16][];
+		passcount = new int[16];
+		edgeNext = new int[16];
+		edgeTarget = new int[16];
+		edgeInsertion = new int[16];
+		edgeDeletion = new int[16];
+		edgePrecigar = new String[16];
+	}
+
+	/**
+	 * Adds the matches of a partial alignment to the graph. Edges between adjacent matches are added unless an edge with the same insertions, deletions and target exists.
+	 * 
+	 * @param fragmentmap
+	 *            the partial alignment
+	 */
+	void add(OptMapResultNode fragmentmap) {
+		Cigar cigar = fragmentmap.cigar;
+		int firstRun = 0;
+		int lastRun = cigar.getRunCount() - 1;
+		if (!allowLocalAlignment) { // since global alignment can start
+			while (firstRun <= lastRun && cigar.getRunOp(firstRun) != 'M')
+				firstRun++;
+			while (lastRun >= firstRun && cigar.getRunOp(lastRun) != 'M')
+				lastRun--;
+		}
+		int rpos = fragmentmap.subrefstart - 1;
+		int fpos = fragmentmap.subfragstart - direction;
+		int savednode = -1;
+		int insertion = 0;
+		int deletion = 0;
+		int gapStartRun = firstRun;
+		int j = 0;
+		for (int r = firstRun; r <= lastRun; r++) {
+			char c = cigar.getRunOp(r);
+			int length = cigar.getRunLength(r);
+			if (c == 'M') {
+				for (int t = 0; t < length; t++) {
+					int node = getNode(rpos, fpos);
+					if (j != 0)
+						isStart[node] = false;
+					if (savednode != -1) {
+						if (t == 0)
+							addEdge(savednode, node, insertion, deletion, cigar, gapStartRun, r);
+						else
+							addEdge(savednode, node, 0, 0, cigar, r, r);
+					}
+					savednode = node;
+					insertion = 0;
+					deletion = 0;
+					fpos += direction;
+					rpos++;
+					j++;
+				}
+				gapStartRun = r + 1;
+			} else {
+				if (c == 'I') {
+					insertion += length;
+					fpos += direction * length;
+				} else if (c == 'D') {
+					deletion += length;
+					rpos += length;
+				}
+				j += length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the start nodes, which are not children of any node, ordered by the reference position and then the creation order.
+	 * 
+	 * @return the start nodes
+	 */
+	int[] getStartNodes() {
+		long[] keys = new long[nodecount];
+		int count = 0;
+		for (int node = 0; node < nodecount; node++)
+			if (isStart[node])
+				keys[count++] = ((long) refpos[node] << 32) | node;
+		Arrays.sort(keys, 0, count);
+		int[] startNodes = new int[count];
+		for (int i = 0; i < count; i++)
+			startNodes[i] = (int) keys[i];
+		return startNodes;
+	}
+
+	/**
+	 * Finds the best path from each start node, and returns the best start node among each set of start nodes whose paths pass through common nodes.
+	 * 
+	 * @param startNodes
+	 *            the start nodes from {@link #getStartNodes()}
+	 * @return the best start nodes
+	 */
+	int[] extractBestStartNodes(int[] startNodes) {
+		int n = startNodes.length;
+		double[] startNodeBestScore = new double[n];
+		// contains the startNode being passed
+		int[][] passmap = new int[n][4];
+		int[] passmapcount = new int[n];
+		for (int j = 0; j < n; j++) {
+			int startNode = startNodes[j];
+			process(startNode, j);
+			for (int p = 0; p < passcount[startNode]; p++) {
+				int pass = passlist[startNode][p];
+				if (pass != j) {
+					passmap[j] = append(passmap[j], passmapcount[j]++, pass);
+					passmap[pass] = append(passmap[pass], passmapcount[pass]++, j);
+				}
+			}
+			startNodeBestScore[j] = bestscore[startNode];
+		}
+
+		boolean[] visited = new boolean[n];
+		int[] bestStartNodes = new int[n];
+		int bestcount = 0;
+		for (int j = 0; j < n; j++)
+			if (!visited[j]) {
+				double best = Double.NEGATIVE_INFINITY;
+				int bestc = -1;
+				for (int k = -1; k < passmapcount[j]; k++) {
+					int c = k == -1 ? j : passmap[j][k];
+					visited[c] = true;
+					if (startNodeBestScore[c] > best) {
+						bestc = c;
+						best = startNodeBestScore[c];
+					}
+				}
+				bestStartNodes[bestcount++] = startNodes[bestc];
+			}
+		return Arrays.copyOf(bestStartNodes, bestcount);
+	}
+
+	/**
+	 * Returns the pre-cigar of the best path from <code>startNode</code>, beginning and ending with a match.
+	 * 
+	 * @param startNode
+	 *            a processed start node
+	 * @return the pre-cigar of the best path
+	 */
+	String getBestPathPrecigar(int startNode) {
+		StringBuilder precigar = new StringBuilder();
+		precigar.append('M');
+		int node = startNode;
+		while (bestedge[node] != END_EDGE) {
+			precigar.append(edgePrecigar[bestedge[node]]);
+			precigar.append('M');
+			node = edgeTarget[bestedge[node]];
+		}
+		return precigar.toString();
+	}
+
+	/**
+	 * Returns the last node of the best path from <code>startNode</code>
+	 * 
+	 * @param startNode
+	 *            a processed start node
+	 * @return the last node of the best path
+	 */
+	int getBestPathEnd(int startNode) {
+		int node = startNode;
+		while (bestedge[node] != END_EDGE)
+			node = edgeTarget[bestedge[node]];
+		return node;
+	}
+
+	int getRefpos(int node) {
+		return refpos[node];
+	}
+
+	int getFragpos(int node) {
+		return fragpos[node];
+	}
+
+	private void process(int node, int pass) {
+		addPass(node, pass);
+		if (bestedge[node] != NO_EDGE)
+			return; // don't reprocess
+		// find best edge
+		for (int e = firstEdge[node]; e != -1; e = edgeNext[e]) {
+			int target = edgeTarget[e];
+			process(target, pass);
+			for (int p = 0; p < passcount[target]; p++)
+				addPass(node, passlist[target][p]);
+			double score = bestscore[target] - edgeInsertion[e] * falseppenalty - edgeDeletion[e] * falsenpenalty;
+			if (score + matchscore > bestscore[node]) {
+				bestscore[node] = score + matchscore;
+				bestedge[node] = e;
+			}
+		}
+		if (bestedge[node] == NO_EDGE) { // In case no further edge can be extended, or the future edge points to negative score
+			bestedge[node] = END_EDGE;
+			bestscore[node] = matchscore;
+		}
+	}
+
+	private void addPass(int node, int pass) {
+		for (int p = 0; p < passcount[node]; p++)
+			if (passlist[node][p] == pass)
+				return;
+		passlist[node] = append(passlist[node], passcount[node]++, pass);
+	}
+
+	private int getNode(int rpos, int fpos) {
+		long key = ((long) rpos << 32) | (fpos & 0xffffffffL);
+		int slot = hash(key) & hashmask;
+		while (hashnode[slot] != -1) {
+			if (hashkey[slot] == key)
+				return hashnode[slot];
+			slot = (slot + 1) & hashmask;
+		}
+		if (nodecount == refpos.length) {
+			int capacity = nodecount * 2;
+			refpos = Arrays.copyOf(refpos, capacity);
+			fragpos = Arrays.copyOf(fragpos, capacity);
+			isStart = Arrays.copyOf(isStart, capacity);
+			firstEdge = Arrays.copyOf(firstEdge, capacity);
+			lastEdge = Arrays.copyOf(lastEdge, capacity);
+			bestscore = Arrays.copyOf(bestscore, capacity);
+			bestedge = Arrays.copyOf(bestedge, capacity);
+			passlist = Arrays.copyOf(passlist, capacity);
+			passcount = Arrays.copyOf(passcount, capacity);
+		}
+		int node = nodecount++;
+		refpos[node] = rpos;
+		fragpos[node] = fpos;
+		isStart[node] = true;
+		firstEdge[node] = -1;
+		lastEdge[node] = -1;
+		bestscore[node] = matchscore;
+		bestedge[node] = NO_EDGE;
+		passlist[node] = new int[1];
+		passcount[node] = 0;
+		hashkey[slot] = key;
+		hashnode[slot] = node;
+		if (nodecount * 2 > hashnode.length)
+			rehash();
+		return node;
+	}
+
+	private void rehash() {
+		long[] oldkey = hashkey;
+		int[] oldnode = hashnode;
+		hashkey = new long[oldkey.length * 2];
+		hashnode = new int[oldnode.length * 2];
+		Arrays.fill(hashnode, -1);
+		hashmask = hashnode.length - 1;
+		for (int i = 0; i < oldnode.length; i++)
+			if (oldnode[i] != -1) {
+				int slot = hash(oldkey[i]) & hashmask;
+				while (hashnode[slot] != -1)
+					slot = (slot + 1) & hashmask;
+				hashkey[slot] = oldkey[i];
+				hashnode[slot] = oldnode[i];
+			}
+	}
+
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	// The edge precigar is only built if the edge is new. It contains the insertions and deletions in runs [gapStartRun, gapStopRun)
+	private void addEdge(int from, int to, int insertion, int deletion, Cigar cigar, int gapStartRun, int gapStopRun) {
+		for (int e = firstEdge[from]; e != -1; e = edgeNext[e])
+			if (edgeTarget[e] == to && edgeInsertion[e] == insertion && edgeDeletion[e] == deletion)
+				return;
+		if (edgecount == edgeTarget.length) {
+			int capacity = edgecount * 2;
+			edgeNext = Arrays.copyOf(edgeNext, capacity);
+			edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+			edgeInsertion = Arrays.copyOf(edgeInsertion, capacity);
+			edgeDeletion = Arrays.copyOf(edgeDeletion, capacity);
+			edgePrecigar = Arrays.copyOf(edgePrecigar, capacity);
+		}
+		StringBuilder localprecigar = new StringBuilder();
+		for (int r = gapStartRun; r < gapStopRun; r++) {
+			char c = cigar.getRunOp(r);
+			if (c == 'I' || c == 'D')
+				for (int l = cigar.getRunLength(r); l > 0; l--)
+					localprecigar.append(c);
+		}
+		int e = edgecount++;
+		edgeNext[e] = -1;
+		edgeTarget[e] = to;
+		edgeInsertion[e] = insertion;
+		edgeDeletion[e] = deletion;
+		edgePrecigar[e] = localprecigar.toString();
+		if (firstEdge[from] == -1)
+			firstEdge[from] = e;
+		else
+			edgeNext[lastEdge[from]] = e;
+		lastEdge[from] = e;
+	}
+
+	private static int[] append(int[] array, int size, int value) {
+		if (size == array.length)
+			array = Arrays.copyOf(array, Math.max(4, size * 2));
+		array[size] = value;
+		return array;
+	}
+}
@@ -84,9 +84,6 @@ public class PostMapJoining implements SelectableMode {
 		this.matchscore = matchscore;
 		this.falseppenalty = falseppenalty;
 		this.falsenpenalty = falsenpenalty;
-		PostJoinPathNode.matchscore = matchscore;
-		PostJoinPathEdge.falseppenalty = falseppenalty;
-		PostJoinPathEdge.falsenpenalty = falsenpenalty;
 //		this.reflimit = reflimit;
 //		this.fraglimit = fraglimit;
 	}
@@ -162,10 +159,10 @@ public class PostMapJoining implements SelectableMode {
 		for (List<OptMapResultNode> overlaplist : overlaplistlist) {
 			if (overlaplist.size() > 1) {
 
-				List<List<PostJoinPathNode>> directedGraph = getGraph(overlaplist, direction);
-				List<PostJoinPathNode> startNodeList = getStartNode(directedGraph);
-				List<PostJoinPathNode> bestStartNodeList = extractBestStartNode(directedGraph, startNodeList);
-				List<OptMapResultNode> extractedfragmentmap = getFragmentMapFromGraph(overlaplist, bestStartNodeList, direction);
+				PostJoinGraph directedGraph = getGraph(overlaplist, direction);
+				int[] startNodes = directedGraph.getStartNodes();
+				int[] bestStartNodes = directedGraph.extractBestStartNodes(startNodes);
+				List<OptMapResultNode> extractedfragmentmap = getFragmentMapFromGraph(overlaplist, directedGraph, bestStartNodes, direction);
 				finallist.addAll(extractedfragmentmap);
 			} else
 				finallist.addAll(overlaplist);
@@ -207,165 +204,62 @@ public class PostMapJoining implements SelectableMode {
 
 	}
 
-	private List<List<PostJoinPathNode>> getGraph(List<OptMapResultNode> overlaplist, int direction) {
-		int start = overlaplist.get(0).subrefstart - 1;
-		int stop = 0;
+	private PostJoinGraph getGraph(List<OptMapResultNode> overlaplist, int direction) {
+		PostJoinGraph directedGraph = new PostJoinGraph(direction, allowLocalAlignment, matchscore, falseppenalty, falsenpenalty);
 		for (OptMapResultNode fragmentmap : overlaplist)
-			if (fragmentmap.subrefstop > stop)
-				stop = fragmentmap.subrefstop;
-		List<List<PostJoinPathNode>> directedGraph = new ArrayList<List<PostJoinPathNode>>();
-		for (int refpos = start; refpos <= stop; refpos++)
-			directedGraph.add(new ArrayList<PostJoinPathNode>());
-		for (OptMapResultNode fragmentmap : overlaplist) {
-			int refpos = fragmentmap.subrefstart - 1;
-			int fragpos = fragmentmap.subfragstart - direction;
-			String precigar = fragmentmap.cigar.getPrecigar();
-			if (!allowLocalAlignment)
-				precigar = precigar.substring(precigar.indexOf('M'), precigar.lastIndexOf('M') + 1); // since global alignment can start
-			char[] cigararray = precigar.toCharArray();
-			PostJoinPathNode savedpjpn = null;
-			StringBuilder localprecigar = new StringBuilder();
-
-			for (int j = 0; j < cigararray.length; j++) {
-				char c = cigararray[j];
-				if (c == 'M') {
-					PostJoinPathNode recentpjpn = null;
-					for (PostJoinPathNode pjpn : directedGraph.get(refpos - start))
-						if (pjpn.fragpos == fragpos) {
-							recentpjpn = pjpn;
-							break;
-						}
-					if (recentpjpn == null) {
-						recentpjpn = new PostJoinPathNode(refpos, fragpos);
-						directedGraph.get(refpos - start).add(recentpjpn);
-					}
-
-					recentpjpn.support++;
-					if (j != 0)
-						recentpjpn.isStart = false;
-					if (savedpjpn != null) {
-						PostJoinPathEdge edge = new PostJoinPathEdge(localprecigar.toString(), recentpjpn);
-						savedpjpn.addEdge(edge); // repeat check done in the module
-					}
-					savedpjpn = recentpjpn;
-					localprecigar = new StringBuilder();
-
-					fragpos += direction;
-					refpos++;
-				} else {
-					if (c == 'I') {
-						localprecigar.append('I');
-						fragpos += direction;
-					} else if (c == 'D') {
-						localprecigar.append('D');
-						refpos++;
-					}
-				}
-
-			}
-		}
+			directedGraph.add(fragmentmap);
 		return directedGraph;
 	}
 
-	private List<PostJoinPathNode> getStartNode(List<List<PostJoinPathNode>> directedGraph) {
-		List<PostJoinPathNode> startNodeList = new ArrayList<PostJoinPathNode>();
-		for (List<PostJoinPathNode> pjpnlist : directedGraph)
-			for (PostJoinPathNode pjpn : pjpnlist)
-				if (pjpn.isStart)
-					startNodeList.add(pjpn);
-
-		return startNodeList;
-	}
-
-	private List<PostJoinPathNode> extractBestStartNode(List<List<PostJoinPathNode>> directedGraph, List<PostJoinPathNode> startNodeList) {
-		List<Double> startNodeBestScore = new ArrayList<Double>();
-		LinkedHashMap<Integer, List<Integer>> passmap = new LinkedHashMap<Integer, List<Integer>>(); // contains the startNode being passed
-		for (int j = 0; j < startNodeList.size(); j++) {
-			PostJoinPathNode startNode = startNodeList.get(j);
-			List<Integer> passlist = startNode.process(j);
-			passmap.put(j, new ArrayList<Integer>());
-			for (int pass : passlist)
-				if (pass != j) {
-
-					passmap.get(j).add(pass);
-					passmap.get(pass).add(j);
-				}
-			startNodeBestScore.add(startNode.bestscore);
-		}
-
-		List<Boolean> visitlist = new ArrayList<Boolean>();
-		for (int j = 0; j < startNodeList.size(); j++)
-			visitlist.add(false);
-
-		List<Integer> bestclist = new ArrayList<Integer>();
-		List<Double> bestscorelist = new ArrayList<Double>();
-
-		for (int j = 0; j < startNodeList.size(); j++)
-			if (!visitlist.get(j)) {
-				List<Integer> samecluster = new ArrayList<Integer>();
-				samecluster.add(j);
-				samecluster.addAll(passmap.get(j));
-				double bestscore = Double.NEGATIVE_INFINITY;
-				int bestscorec = -1;
-				for (int c : samecluster) {
-					visitlist.set(c, true);
-					if (startNodeBestScore.get(c) > bestscore) {
-						bestscorec = c;
-						bestscore = startNodeBestScore.get(c);
-					}
-				}
-				bestclist.add(bestscorec);
-				bestscorelist.add(bestscore);
-			}
-		List<PostJoinPathNode> finalStartNodeList = new ArrayList<PostJoinPathNode>();
-		for (int j : bestclist)
-			finalStartNodeList.add(startNodeList.get(j));
-		return finalStartNodeList;
-	}
-
-	private List<OptMapResultNode> getFragmentMapFromGraph(List<OptMapResultNode> overlaplist, List<PostJoinPathNode> startNodeList, int direction) {
+	private List<OptMapResultNode> getFragmentMapFromGraph(List<OptMapResultNode> overlaplist, PostJoinGraph directedGraph, int[] startNodes, int direction) {
 		List<OptMapResultNode> fragmentmaplist = new ArrayList<OptMapResultNode>();
-		for (PostJoinPathNode pjpn : startNodeList)
-			fragmentmaplist.add(getFragmentMapFromGraph(overlaplist, pjpn, direction));
+		for (int startNode : startNodes)
+			fragmentmaplist.add(getFragmentMapFromGraph(overlaplist, directedGraph, startNode, direction));
 		return fragmentmaplist;
 	}
 
-	private OptMapResultNode getFragmentMapFromGraph(List<OptMapResultNode> overlaplist, PostJoinPathNode startNode, int direction) {
+	private OptMapResultNode getFragmentMapFromGraph(List<OptMapResultNode> overlaplist, PostJoinGraph directedGraph, int startNode, int direction) {
 		OptMapResultNode fragmentmapsource = overlaplist.get(0);
-		StringBuilder newprecigar = new StringBuilder();
-		int subfragstart = startNode.fragpos + direction;
-		int subrefstart = startNode.refpos + 1;
-		PostJoinPathNode pjpn = startNode;
-		PostJoinPathEdge edge;
-		newprecigar.append('M');
-		while ((edge = pjpn.bestedge) != PostJoinPathEdge.endEdge) {
-			newprecigar.append(edge.localprecigar);
-			newprecigar.append('M');
-			pjpn = pjpn.bestedge.nextNode;
-		}
-		int subfragstop = pjpn.fragpos;
-		int subrefstop = pjpn.refpos;
+		StringBuilder newprecigar = new StringBuilder(directedGraph.getBestPathPrecigar(startNode));
+		int subfragstart = directedGraph.getFragpos(startNode) + direction;
+		int subrefstart = directedGraph.getRefpos(startNode) + 1;
+		int endNode = directedGraph.getBestPathEnd(startNode);
+		int subfragstop = directedGraph.getFragpos(endNode);
+		int subrefstop = directedGraph.getRefpos(endNode);
 		if (!allowLocalAlignment) // regenerate left / right indel after joining at global mapping
 		{
 			Cigar leftcigar = null;
 			Cigar rightcigar = null;
 			for (OptMapResultNode fragmentmap : overlaplist) {
 				if (fragmentmap.subrefstart == subrefstart && fragmentmap.subfragstart == subfragstart) {
-					String oldprecigar = fragmentmap.cigar.getPrecigar();
-					Cigar recentCigar = new Cigar(oldprecigar.substring(0, oldprecigar.indexOf('M')));
+					// runs before the first match
+					Cigar recentCigar = new Cigar();
+					for (int run = 0; run < fragmentmap.cigar.getRunCount() && fragmentmap.cigar.getRunOp(run) != 'M'; run++)
+						recentCigar.append(fragmentmap.cigar.getRunOp(run), fragmentmap.cigar.getRunLength(run));
 					if (leftcigar == null || recentCigar.calcScore(matchscore, falseppenalty, falsenpenalty) >= leftcigar.calcScore(matchscore, falseppenalty, falsenpenalty)) {
 						leftcigar = recentCigar;
 					}
 				}
 				if (fragmentmap.subrefstop == subrefstop && fragmentmap.subfragstop == subfragstop)
 				{
-					String oldprecigar = fragmentmap.cigar.getPrecigar();
-					Cigar recentCigar = new Cigar(oldprecigar.substring(oldprecigar.lastIndexOf('M') + 1, oldprecigar.length()));
+					// runs after the last match
+					int lastRun = fragmentmap.cigar.getRunCount() - 1;
+					while (lastRun >= 0 && fragmentmap.cigar.getRunOp(lastRun) != 'M')
+						lastRun--;
+					Cigar recentCigar = new Cigar();
+					for (int run = lastRun + 1; run < fragmentmap.cigar.getRunCount(); run++)
+						recentCigar.append(fragmentmap.cigar.getRunOp(run), fragmentmap.cigar.getRunLength(run));
 					if (rightcigar == null || recentCigar.calcScore(matchscore, falseppenalty, falsenpenalty) >= rightcigar.calcScore(matchscore, falseppenalty, falsenpenalty))
 						rightcigar = recentCigar;
 				}
 			}
-			newprecigar = new StringBuilder((leftcigar == null ? "" : leftcigar.getPrecigar()) + newprecigar.toString() + (rightcigar == null ? "" : rightcigar.getPrecigar()));
+			StringBuilder joinedprecigar = new StringBuilder();
+			if (leftcigar != null)
+				leftcigar.appendTo(joinedprecigar);
+			joinedprecigar.append(newprecigar);
+			if (rightcigar != null)
+				rightcigar.appendTo(joinedprecigar);
+			newprecigar = joinedprecigar;
 		}
 		DataNode fragment = fragmentmapsource.parentFrag;
 		double refinedratio = Math.abs(fragment.length(subfragstart, subfragstop)) / (double) optrefmap.get(fragmentmapsource.mappedRegion.ref).length(subrefstart, subrefstop);
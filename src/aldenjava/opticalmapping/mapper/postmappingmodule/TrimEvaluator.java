@@ -0,0 +1,194 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.postmappingmodule;
+
+import aldenjava.opticalmapping.Cigar;
+import aldenjava.opticalmapping.data.data.DataNode;
+import aldenjava.opticalmapping.data.mappingresult.OptMapResultNode;
+
+/**
+ * Evaluates a result trimmed by any number of matched signals on both sides without constructing the trimmed result. Prefix sums of matches, false positives and false negatives over the pre-cigar are precomputed, so that the statistics of each trimmed result are obtained in constant time. The statistics are calculated in the same way as <code>OptMapResultNode.trimResult</code>, <code>updateMappedRegion</code> and <code>updateScore</code>.
+ * 
+ * @author Alden
+ *
+ */
+class TrimEvaluator implements FilterStatistics {
+	private final OptMapResultNode result;
+	private final DataNode ref;
+	private final int length;
+	private final int[] prefixM;
+	private final int[] prefixI;
+	private final int[] prefixD;
+	// positions of the first and last operations after trimming 0, 1, 2, ... matched signals
+	private final int[] leftPos;
+	private final int[] rightPos;
+
+	// statistics of the evaluated trimmed result
+	int match;
+	int fp;
+	int fn;
+	int subrefstart;
+	int subrefstop;
+	int subfragstart;
+	int subfragstop;
+	double mappedscore;
+
+	TrimEvaluator(OptMapResultNode result, DataNode ref) {
+		this.result = result;
+		this.ref = ref;
+		Cigar cigar = result.cigar;
+		length = cigar.length();
+		prefixM = new int[length + 1];
+		prefixI = new int[length + 1];
+		prefixD = new int[length + 1];
+		int[] matchPos = new int[cigar.getMatch()];
+		int matchCount = 0;
+		int pos = 0;
+		for (int run = 0; run < cigar.getRunCount(); run++) {
+			char c = cigar.getRunOp(run);
+			for (int l = cigar.getRunLength(run); l > 0; l--) {
+				prefixM[pos + 1] = prefixM[pos] + (c == 'M' ? 1 : 0);
+				prefixI[pos + 1] = prefixI[pos] + (c == 'I' ? 1 : 0);
+				prefixD[pos + 1] = prefixD[pos] + (c == 'D' ? 1 : 0);
+				if (c == 'M')
+					matchPos[matchCount++] = pos;
+				pos++;
+			}
+		}
+		// Each trim moves to the next matched signal, until one operation remains
+		boolean startWithMatch = matchCount > 0 && matchPos[0] == 0;
+		boolean endWithMatch = matchCount > 0 && matchPos[matchCount - 1] == length - 1;
+		leftPos = new int[matchCount + 1];
+		leftPos[0] = 0;
+		for (int t = 1; t <= matchCount; t++)
+			leftPos[t] = startWithMatch ? (t < matchCount ? matchPos[t] : matchPos[matchCount - 1]) : matchPos[t - 1];
+		rightPos = new int[matchCount + 1];
+		rightPos[0] = length - 1;
+		for (int t = 1; t <= matchCount; t++)
+			rightPos[t] = endWithMatch ? (t < matchCount ? matchPos[matchCount - 1 - t] : matchPos[0]) : matchPos[matchCount - t];
+	}
+
+	/**
+	 * Evaluates the result trimmed by <code>leftTrim</code> matched signals from the start and <code>rightTrim</code> matched signals from the end on reference
+	 * 
+	 * @param leftTrim
+	 *            number of signals trimmed from the start
+	 * @param rightTrim
+	 *            number of signals trimmed from the end
+	 * @param matchscore
+	 *            match score
+	 * @param fpp
+	 *            false positive penalty
+	 * @param fnp
+	 *            false negative penalty
+	 */
+	void evaluate(int leftTrim, int rightTrim, int matchscore, int fpp, int fnp) {
+		int left = leftPos[Math.min(leftTrim, leftPos.length - 1)];
+		int right = Math.max(rightPos[Math.min(rightTrim, rightPos.length - 1)], left);
+		int removedM = prefixM[left];
+		int removedI = prefixI[left];
+		int removedD = prefixD[left];
+		subrefstart = result.subrefstart + removedM + removedD;
+		if (result.mappedstrand == -1)
+			subfragstart = result.subfragstart - (removedM + removedI);
+		else
+			subfragstart = result.subfragstart + (removedM + removedI);
+		removedM = prefixM[length] - prefixM[right + 1];
+		removedI = prefixI[length] - prefixI[right + 1];
+		removedD = prefixD[length] - prefixD[right + 1];
+		subrefstop = result.subrefstop - (removedM + removedD);
+		if (result.mappedstrand == -1)
+			subfragstop = result.subfragstop + (removedM + removedI);
+		else
+			subfragstop = result.subfragstop - (removedM + removedI);
+		match = prefixM[right + 1] - prefixM[left];
+		fp = prefixI[right + 1] - prefixI[left];
+		fn = prefixD[right + 1] - prefixD[left];
+
+		long mappedstart = subrefstart >= 1 ? ref.refp[subrefstart - 1] : 0;
+		long mappedstop = subrefstop < ref.refp.length ? ref.refp[subrefstop] : ref.size;
+		double scale = getMapLength() / (double) (mappedstop - mappedstart + 1);
+		mappedscore = (match * (double) matchscore - fp * (double) fpp - fn * (double) fnp) * (1 - Math.abs(1 - scale));
+	}
+
+	private long getMapLength() {
+		if (subfragstart == -1 || subfragstop == -1)
+			return -1;
+		if (result.mappedstrand == 1)
+			return result.length(subfragstart, subfragstop);
+		else if (result.mappedstrand == -1)
+			return result.length(subfragstop, subfragstart);
+		else
+			return 0;
+	}
+
+	@Override
+	public double getMappedScore() {
+		return mappedscore;
+	}
+
+	@Override
+	public int getMatch() {
+		return match;
+	}
+
+	@Override
+	public int getFP() {
+		return fp;
+	}
+
+	@Override
+	public int getFN() {
+		return fn;
+	}
+
+	@Override
+	public double getSubFragRatio() {
+		if (getMapLength() == -1)
+			return -1;
+		return (getMapLength() / (double) (result.length(1, result.getTotalSegment() - 2)));
+	}
+
+	@Override
+	public double getFPRate() {
+		return fp / (double) (Math.abs(result.length(subfragstart, subfragstop)) + 1);
+	}
+
+	@Override
+	public double getFNRate() {
+		return fn / (double) (Math.abs(subrefstop - subrefstart) + 1);
+	}
+
+	@Override
+	public double getMapSigRatio() {
+		return (match / (double) (result.getTotalSegment() - 1));
+	}
+}
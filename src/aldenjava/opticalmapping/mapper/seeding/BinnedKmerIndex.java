@@ -0,0 +1,213 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A reference kmer index binning the kmers by sizes. The size at each position is converted to a bucket by <code>FastConversionTable</code>, and the buckets of a kmer are packed into a <code>long</code> bucket code. Kmers are stored in the order of their bucket codes, such that kmers of a bucket are found by binary search on the sorted distinct codes. A range query enumerates the neighbouring buckets arithmetically and verifies the kmers inside each bucket.
+ * <p>
+ * If <code>k</code> is too large for all positions to be packed into a <code>long</code>, only the leading positions are coded and the others are checked during verification.
+ * 
+ * @author Alden
+ *
+ */
+public class BinnedKmerIndex implements KmerIndex {
+
+	private final int k;
+	private final FastConversionTable table;
+	private final int bitsPerPosition;
+	private final int codedPositions;
+	/**
+	 * Kmers in the order of bucket codes
+	 */
+	private final KmerColumns columns;
+	/**
+	 * Distinct bucket codes in ascending order
+	 */
+	private final long[] bucketCodes;
+	/**
+	 * Kmers of bucket <code>bucketCodes[i]</code> are stored from <code>bucketStart[i]</code> (inclusive) to <code>bucketStart[i + 1]</code> (exclusive)
+	 */
+	private final int[] bucketStart;
+
+	/**
+	 * Constructs a <code>BinnedKmerIndex</code> on all kmers of the reference. The kmers are identical to those from {@link DataNode#getKmerWord(LinkedHashMap, int, long)}.
+	 * 
+	 * @param optrefmap
+	 *            the reference
+	 * @param k
+	 *            kmer length
+	 * @param maxnosignalregion
+	 *            maximum size of a segment to be included in kmers
+	 * @param table
+	 *            the conversion table from size to bucket
+	 */
+	public BinnedKmerIndex(LinkedHashMap<String, DataNode> optrefmap, int k, long maxnosignalregion, FastConversionTable table) {
+		this(KmerColumns.fromReference(optrefmap, k, maxnosignalregion), table);
+	}
+
+	/**
+	 * Constructs a <code>BinnedKmerIndex</code> on the given kmers. All kmers must have the length <code>k</code>.
+	 * 
+	 * @param kmerList
+	 *            the kmers to be indexed
+	 * @param k
+	 *            kmer length
+	 * @param table
+	 *            the conversion table from size to bucket
+	 */
+	public BinnedKmerIndex(List<Kmer> kmerList, int k, FastConversionTable table) {
+		this(KmerColumns.fromKmerList(kmerList, k), table);
+	}
+
+	private BinnedKmerIndex(KmerColumns columns, FastConversionTable table) {
+		this.k = columns.k;
+		this.table = table;
+		this.bitsPerPosition = Math.max(1, 64 - Long.numberOfLeadingZeros(table.getBucketCount() - 1));
+		this.codedPositions = Math.min(k, 64 / bitsPerPosition);
+
+		long[] codes = new long[columns.size()];
+		for (int id = 0; id < codes.length; id++)
+			codes[id] = getCode(columns.sizes, id * k);
+		int[] order = KmerColumns.sortIds(codes);
+		this.columns = columns.reorder(order);
+
+		int distinct = 0;
+		for (int r = 0; r < order.length; r++)
+			if (r == 0 || codes[order[r]] != codes[order[r - 1]])
+				distinct++;
+		this.bucketCodes = new long[distinct];
+		this.bucketStart = new int[distinct + 1];
+		int bucket = 0;
+		for (int r = 0; r < order.length; r++)
+			if (r == 0 || codes[order[r]] != codes[order[r - 1]]) {
+				bucketCodes[bucket] = codes[order[r]];
+				bucketStart[bucket] = r;
+				bucket++;
+			}
+		bucketStart[distinct] = order.length;
+	}
+
+	private long getCode(long[] sizes, int offset) {
+		long code = 0;
+		for (int i = 0; i < codedPositions; i++)
+			code = (code << bitsPerPosition) | table.getBucket(sizes[offset + i]);
+		return code;
+	}
+
+	@Override
+	public int[] query(long[] lower, long[] upper) {
+		int[] fromBucket = new int[codedPositions];
+		int[] toBucket = new int[codedPositions];
+		int[] bucket = new int[codedPositions];
+		for (int i = 0; i < codedPositions; i++) {
+			fromBucket[i] = table.getBucket(lower[i]);
+			toBucket[i] = table.getBucket(upper[i]);
+			if (toBucket[i] < fromBucket[i])
+				return new int[0];
+			bucket[i] = fromBucket[i];
+		}
+		int[] matchedIds = new int[16];
+		int matched = 0;
+		while (true) {
+			long code = 0;
+			for (int i = 0; i < codedPositions; i++)
+				code = (code << bitsPerPosition) | bucket[i];
+			int index = Arrays.binarySearch(bucketCodes, code);
+			if (index >= 0)
+				for (int id = bucketStart[index]; id < bucketStart[index + 1]; id++)
+					if (columns.inside(id, lower, upper)) {
+						if (matched == matchedIds.length)
+							matchedIds = Arrays.copyOf(matchedIds, matched * 2);
+						matchedIds[matched++] = id;
+					}
+
+			// Next combination of neighbouring buckets, the last position changes the fastest
+			int pos = codedPositions - 1;
+			while (pos >= 0 && bucket[pos] == toBucket[pos]) {
+				bucket[pos] = fromBucket[pos];
+				pos--;
+			}
+			if (pos < 0)
+				break;
+			bucket[pos]++;
+		}
+		return Arrays.copyOf(matchedIds, matched);
+	}
+
+	@Override
+	public int[][] query(long[][] lower, long[][] upper) {
+		int[][] matchedIds = new int[lower.length][];
+		for (int q = 0; q < lower.length; q++)
+			matchedIds[q] = query(lower[q], upper[q]);
+		return matchedIds;
+	}
+
+	@Override
+	public boolean limitRange(int id, Kmer kmer, int measure, double ear) {
+		return columns.limitRange(id, kmer, measure, ear);
+	}
+
+	@Override
+	public Kmer getKmer(int id) {
+		return columns.getKmer(id);
+	}
+
+	@Override
+	public String getSource(int id) {
+		return columns.refNames[columns.refIds[id]];
+	}
+
+	@Override
+	public int getPos(int id) {
+		return columns.positions[id];
+	}
+
+	@Override
+	public long getSize(int id, int pos) {
+		return columns.sizes[id * k + pos];
+	}
+
+	@Override
+	public int k() {
+		return k;
+	}
+
+	@Override
+	public int size() {
+		return columns.size();
+	}
+}
@@ -0,0 +1,331 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A reference kmer index stored in primitive columns. Each kmer is identified by an integer id, and its source, position and sizes are stored in <code>IntBuffer</code> and <code>LongBuffer</code> columns. For each kmer position, a permutation of kmer ids sorted by the size at that position is kept, such that range queries can be answered without any <code>Kmer</code> object.
+ * <p>
+ * The columns are either backed by heap arrays when the index is built, or by memory-mapped regions when the index is read from a file by {@link SeedIndexFile}.
+ * 
+ * @author Alden
+ *
+ */
+public class ColumnarKmerIndex implements KmerIndex {
+
+	private final int k;
+	private final String[] refNames;
+	private final IntBuffer refIds;
+	private final IntBuffer positions;
+	/**
+	 * Sizes of all kmers in row-major order, i.e. size at position <code>i</code> of kmer <code>id</code> is stored at <code>id * k + i</code>
+	 */
+	private final LongBuffer sizes;
+	/**
+	 * Kmer ids sorted by the size at each position
+	 */
+	private final IntBuffer[] sortedIds;
+	/**
+	 * Sizes at each position following the order of <code>sortedIds</code>, used for binary search
+	 */
+	private final LongBuffer[] sortedSizes;
+
+	ColumnarKmerIndex(int k, String[] refNames, IntBuffer refIds, IntBuffer positions, LongBuffer sizes, IntBuffer[] sortedIds, LongBuffer[] sortedSizes) {
+		this.k = k;
+		this.refNames = refNames;
+		this.refIds = refIds;
+		this.positions = positions;
+		this.sizes = sizes;
+		this.sortedIds = sortedIds;
+		this.sortedSizes = sortedSizes;
+	}
+
+	/**
+	 * Constructs a <code>ColumnarKmerIndex</code> on all kmers of the reference. The kmers are identical to those from {@link DataNode#getKmerWord(LinkedHashMap, int, long)}, but no <code>Kmer</code> is created during construction.
+	 * 
+	 * @param optrefmap
+	 *            the reference
+	 * @param k
+	 *            kmer length
+	 * @param maxnosignalregion
+	 *            maximum size of a segment to be included in kmers
+	 */
+	public ColumnarKmerIndex(LinkedHashMap<String, DataNode> optrefmap, int k, long maxnosignalregion) {
+		this(KmerColumns.fromReference(optrefmap, k, maxnosignalregion));
+	}
+
+	/**
+	 * Constructs a <code>ColumnarKmerIndex</code> on the given kmers. All kmers must have the length <code>k</code>.
+	 * 
+	 * @param kmerList
+	 *            the kmers to be indexed
+	 * @param k
+	 *            kmer length
+	 */
+	public ColumnarKmerIndex(List<Kmer> kmerList, int k) {
+		this(KmerColumns.fromKmerList(kmerList, k));
+	}
+
+	private ColumnarKmerIndex(KmerColumns columns) {
+		this.k = columns.k;
+		this.refNames = columns.refNames;
+		this.refIds = IntBuffer.wrap(columns.refIds);
+		this.positions = IntBuffer.wrap(columns.positions);
+		this.sizes = LongBuffer.wrap(columns.sizes);
+		this.sortedIds = new IntBuffer[k];
+		this.sortedSizes = new LongBuffer[k];
+		buildSortedColumns(columns.sizes);
+	}
+
+	private void buildSortedColumns(long[] sizes) {
+		int total = sizes.length / k;
+		long[] column = new long[total];
+		for (int i = 0; i < k; i++) {
+			for (int id = 0; id < total; id++)
+				column[id] = sizes[id * k + i];
+			int[] ids = KmerColumns.sortIds(column);
+			long[] sortedColumn = new long[total];
+			for (int r = 0; r < total; r++)
+				sortedColumn[r] = column[ids[r]];
+			sortedIds[i] = IntBuffer.wrap(ids);
+			sortedSizes[i] = LongBuffer.wrap(sortedColumn);
+		}
+	}
+
+	/**
+	 * Returns the first index in <code>column</code> with value not less than <code>key</code>
+	 */
+	private static int lowerBound(LongBuffer column, long key) {
+		int lo = 0;
+		int hi = column.limit();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (column.get(mid) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the first index in <code>column</code> from <code>from</code> with value not less than <code>key</code>, given that all values before <code>from</code> are less than <code>key</code>. The search gallops from <code>from</code>, so a sweep of ascending keys costs much less than independent binary searches.
+	 */
+	private static int gallopLowerBound(LongBuffer column, long key, int from) {
+		int limit = column.limit();
+		if (from >= limit || column.get(from) >= key)
+			return from;
+		int lo = from;
+		int step = 1;
+		int hi = from + step;
+		while (hi < limit && column.get(hi) < key) {
+			lo = hi;
+			step *= 2;
+			hi = from + step;
+		}
+		if (hi > limit)
+			hi = limit;
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (column.get(mid) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * {@inheritDoc} Only the position with the fewest candidates is scanned, and the candidates are verified against the other positions directly from the columns.
+	 */
+	@Override
+	public int[] query(long[] lower, long[] upper) {
+		int[] starts = new int[k];
+		int[] stops = new int[k];
+		for (int i = 0; i < k; i++) {
+			starts[i] = lowerBound(sortedSizes[i], lower[i]);
+			stops[i] = (upper[i] == Long.MAX_VALUE) ? sortedSizes[i].limit() : lowerBound(sortedSizes[i], upper[i] + 1);
+		}
+		return query(lower, upper, starts, stops);
+	}
+
+	/**
+	 * {@inheritDoc} The queries are sorted by the bounds at each position, and each sorted column is swept once with galloping search.
+	 */
+	@Override
+	public int[][] query(long[][] lower, long[][] upper) {
+		int n = lower.length;
+		int[][] starts = new int[n][k];
+		int[][] stops = new int[n][k];
+		long[] keys = new long[n];
+		for (int i = 0; i < k; i++) {
+			for (int q = 0; q < n; q++)
+				keys[q] = lower[q][i];
+			int from = 0;
+			for (int q : KmerColumns.sortIds(keys)) {
+				from = gallopLowerBound(sortedSizes[i], lower[q][i], from);
+				starts[q][i] = from;
+			}
+			for (int q = 0; q < n; q++)
+				keys[q] = upper[q][i];
+			from = 0;
+			for (int q : KmerColumns.sortIds(keys))
+				if (upper[q][i] == Long.MAX_VALUE)
+					stops[q][i] = sortedSizes[i].limit();
+				else {
+					from = gallopLowerBound(sortedSizes[i], upper[q][i] + 1, from);
+					stops[q][i] = from;
+				}
+		}
+		int[][] matchedIds = new int[n][];
+		for (int q = 0; q < n; q++)
+			matchedIds[q] = query(lower[q], upper[q], starts[q], stops[q]);
+		return matchedIds;
+	}
+
+	/**
+	 * Collects the kmers within the bounds, given the range of candidates in the sorted column of each position
+	 */
+	private int[] query(long[] lower, long[] upper, int[] starts, int[] stops) {
+		int bestPos = -1;
+		int bestStart = 0;
+		int bestStop = 0;
+		for (int i = 0; i < k; i++) {
+			int start = starts[i];
+			int stop = stops[i];
+			if (stop <= start)
+				return new int[0];
+			if (bestPos == -1 || stop - start < bestStop - bestStart) {
+				bestPos = i;
+				bestStart = start;
+				bestStop = stop;
+			}
+		}
+		if (bestPos == -1)
+			return new int[0];
+		IntBuffer candidateIds = sortedIds[bestPos];
+		int[] matchedIds = new int[bestStop - bestStart];
+		int matched = 0;
+		NEXTCandidate: for (int r = bestStart; r < bestStop; r++) {
+			int id = candidateIds.get(r);
+			int offset = id * k;
+			for (int i = 0; i < k; i++) {
+				long size = sizes.get(offset + i);
+				if (size < lower[i] || size > upper[i])
+					continue NEXTCandidate;
+			}
+			matchedIds[matched++] = id;
+		}
+		return Arrays.copyOf(matchedIds, matched);
+	}
+
+	@Override
+	public boolean limitRange(int id, Kmer kmer, int measure, double ear) {
+		double ubound = 1 + ear;
+		double lbound = 1 - ear;
+		int offset = id * k;
+		for (int pos = 0; pos < k; pos++) {
+			double newubound = (kmer.get(pos) + measure) / (double) sizes.get(offset + pos);
+			double newlbound = (kmer.get(pos) - measure) / (double) sizes.get(offset + pos);
+			if (newubound < ubound)
+				ubound = newubound;
+			if (newlbound > lbound)
+				lbound = newlbound;
+		}
+		return (ubound >= lbound);
+	}
+
+	@Override
+	public Kmer getKmer(int id) {
+		long[] kmersizes = new long[k];
+		for (int i = 0; i < k; i++)
+			kmersizes[i] = sizes.get(id * k + i);
+		return new Kmer(refNames[refIds.get(id)], positions.get(id), kmersizes);
+	}
+
+	@Override
+	public String getSource(int id) {
+		return refNames[refIds.get(id)];
+	}
+
+	@Override
+	public int getPos(int id) {
+		return positions.get(id);
+	}
+
+	@Override
+	public long getSize(int id, int pos) {
+		return sizes.get(id * k + pos);
+	}
+
+	@Override
+	public int k() {
+		return k;
+	}
+
+	@Override
+	public int size() {
+		return positions.limit();
+	}
+
+	// Column access for SeedIndexFile
+	String[] getRefNames() {
+		return refNames;
+	}
+
+	IntBuffer getRefIdColumn() {
+		return refIds.duplicate();
+	}
+
+	IntBuffer getPositionColumn() {
+		return positions.duplicate();
+	}
+
+	LongBuffer getSizeColumn() {
+		return sizes.duplicate();
+	}
+
+	IntBuffer getSortedIdColumn(int pos) {
+		return sortedIds[pos].duplicate();
+	}
+
+	LongBuffer getSortedSizeColumn(int pos) {
+		return sortedSizes[pos].duplicate();
+	}
+}
@@ -0,0 +1,83 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+/**
+ * A conversion table from size to bucket used in binning seeding mode. Bucket <code>i</code> covers the sizes larger than <code>boundaries[i - 1]</code> and not larger than <code>boundaries[i]</code>.
+ * 
+ * @author Alden
+ *
+ */
+public class FastConversionTable {
+	private final long[] boundaries; // final boundary should cover all sizes; larger sizes fall into the last bucket
+
+	public FastConversionTable(long[] boundaries) {
+		if (boundaries.length == 0)
+			throw new IllegalArgumentException("At least one bucket is required.");
+		for (int i = 1; i < boundaries.length; i++)
+			if (boundaries[i] <= boundaries[i - 1])
+				throw new IllegalArgumentException("Bucket boundaries must be in ascending order.");
+		this.boundaries = boundaries;
+	}
+
+	/**
+	 * Returns the bucket of <code>size</code>, i.e. the first bucket whose boundary is not less than <code>size</code>, using binary search
+	 * 
+	 * @param size
+	 *            the size
+	 * @return the bucket
+	 */
+	public int getBucket(long size) {
+		int lo = 0;
+		int hi = boundaries.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (boundaries[mid] < size)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public int getBucketCount() {
+		return boundaries.length;
+	}
+
+	public static FastConversionTable standardTable() {
+		int gap = 5000;
+		long[] boundaries = new long[255];
+		for (int i = 0; i < 254; i++)
+			boundaries[i] = (long) gap * (i + 1);
+		boundaries[254] = Integer.MAX_VALUE;
+		return new FastConversionTable(boundaries);
+	}
+}
@@ -0,0 +1,219 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * A reference kmer index organized as an implicit balanced k-d tree over the k size dimensions. The kmers are stored in tree order, where the node of a sub-tree covering ids <code>[lo, hi)</code> is at <code>(lo + hi) / 2</code> and splits on dimension <code>depth % k</code>. A range query visits only the sub-trees intersecting the query box, so the larger one-dimensional candidate sets are never materialized.
+ * 
+ * @author Alden
+ *
+ */
+public class KdTreeKmerIndex implements KmerIndex {
+
+	private final int k;
+	/**
+	 * Kmers in tree order
+	 */
+	private final KmerColumns columns;
+
+	/**
+	 * Constructs a <code>KdTreeKmerIndex</code> on all kmers of the reference. The kmers are identical to those from {@link DataNode#getKmerWord(LinkedHashMap, int, long)}.
+	 * 
+	 * @param optrefmap
+	 *            the reference
+	 * @param k
+	 *            kmer length
+	 * @param maxnosignalregion
+	 *            maximum size of a segment to be included in kmers
+	 */
+	public KdTreeKmerIndex(LinkedHashMap<String, DataNode> optrefmap, int k, long maxnosignalregion) {
+		this(KmerColumns.fromReference(optrefmap, k, maxnosignalregion));
+	}
+
+	/**
+	 * Constructs a <code>KdTreeKmerIndex</code> on the given kmers. All kmers must have the length <code>k</code>.
+	 * 
+	 * @param kmerList
+	 *            the kmers to be indexed
+	 * @param k
+	 *            kmer length
+	 */
+	public KdTreeKmerIndex(List<Kmer> kmerList, int k) {
+		this(KmerColumns.fromKmerList(kmerList, k));
+	}
+
+	private KdTreeKmerIndex(KmerColumns columns) {
+		this.k = columns.k;
+		this.columns = columns.reorder(buildTree(columns.sizes, columns.size(), k));
+	}
+
+	/**
+	 * Returns the tree order of the kmers
+	 */
+	private static int[] buildTree(long[] sizes, int total, int k) {
+		int[] order = new int[total];
+		for (int i = 0; i < total; i++)
+			order[i] = i;
+		if (k > 0)
+			buildTree(order, sizes, k, 0, total, 0);
+		return order;
+	}
+
+	private static void buildTree(int[] order, long[] sizes, int k, int lo, int hi, int depth) {
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			select(order, sizes, k, depth % k, lo, hi, mid);
+			buildTree(order, sizes, k, lo, mid, depth + 1);
+			lo = mid + 1;
+			depth++;
+		}
+	}
+
+	/**
+	 * Rearranges <code>order[lo, hi)</code> such that <code>order[nth]</code> holds the kmer with the nth smallest size at <code>dim</code>, with no larger size before it and no smaller size after it
+	 */
+	private static void select(int[] order, long[] sizes, int k, int dim, int lo, int hi, int nth) {
+		hi--;
+		while (hi > lo) {
+			long pivot = sizes[order[(lo + hi) >>> 1] * k + dim];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (sizes[order[i] * k + dim] < pivot)
+					i++;
+				while (sizes[order[j] * k + dim] > pivot)
+					j--;
+				if (i <= j) {
+					int tmp = order[i];
+					order[i] = order[j];
+					order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j)
+				hi = j;
+			else if (nth >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+	@Override
+	public int[] query(long[] lower, long[] upper) {
+		Hits hits = new Hits();
+		query(0, columns.size(), 0, lower, upper, hits);
+		return Arrays.copyOf(hits.ids, hits.size);
+	}
+
+	@Override
+	public int[][] query(long[][] lower, long[][] upper) {
+		int[][] matchedIds = new int[lower.length][];
+		for (int q = 0; q < lower.length; q++)
+			matchedIds[q] = query(lower[q], upper[q]);
+		return matchedIds;
+	}
+
+	private void query(int lo, int hi, int depth, long[] lower, long[] upper, Hits hits) {
+		long[] sizes = columns.sizes;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (columns.inside(mid, lower, upper))
+				hits.add(mid);
+			int dim = depth % k;
+			long value = sizes[mid * k + dim];
+			boolean left = lower[dim] <= value;
+			boolean right = upper[dim] >= value;
+			if (left && right)
+				query(lo, mid, depth + 1, lower, upper, hits);
+			if (right)
+				lo = mid + 1;
+			else if (left)
+				hi = mid;
+			else
+				break;
+			depth++;
+		}
+	}
+
+	@Override
+	public boolean limitRange(int id, Kmer kmer, int measure, double ear) {
+		return columns.limitRange(id, kmer, measure, ear);
+	}
+
+	@Override
+	public Kmer getKmer(int id) {
+		return columns.getKmer(id);
+	}
+
+	@Override
+	public String getSource(int id) {
+		return columns.refNames[columns.refIds[id]];
+	}
+
+	@Override
+	public int getPos(int id) {
+		return columns.positions[id];
+	}
+
+	@Override
+	public long getSize(int id, int pos) {
+		return columns.sizes[id * k + pos];
+	}
+
+	@Override
+	public int k() {
+		return k;
+	}
+
+	@Override
+	public int size() {
+		return columns.size();
+	}
+
+	private static class Hits {
+		private int[] ids = new int[16];
+		private int size = 0;
+
+		private void add(int id) {
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+	}
+}
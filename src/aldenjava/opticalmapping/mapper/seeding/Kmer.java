@@ -30,104 +30,196 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
 /**
- * Kmer, or K-tuple, is a class to represent k consecutive segments
+ * Kmer, or K-tuple, is a class to represent k consecutive segments. The sizes are a view of a primitive array, such as all segment sizes of the parent <code>DataNode</code>, or a row of an index, so no size is copied when kmers are created or copied.
  * @author Alden
  *
  */
 public class Kmer {
 
+	private static final int[] NO_ERROR = new int[0];
+
 	public final String source;
 	public final int pos;
-	public final List<Long> sizelist;
-	public final List<Long> realsizelist;
-	public final List<Integer> errorposlist;
+	private long[] sizes;
+	private int offset;
+	private int k;
+	private final long[] realsizes;
+	private final int realoffset;
+	private final int realk;
+	private final int[] errorpos;
 
-	public Kmer(String source, int pos, List<Long> sizelist, List<Long> realsizelist, List<Integer> errorposlist) {
+	/**
+	 * Constructs a kmer viewing <code>k</code> sizes of <code>sizes</code> from <code>offset</code>. The array should not be modified afterwards.
+	 * 
+	 * @param source
+	 *            name of the source
+	 * @param pos
+	 *            position of the first segment on the source
+	 * @param sizes
+	 *            the array holding the sizes
+	 * @param offset
+	 *            index of the first size in <code>sizes</code>
+	 * @param k
+	 *            number of sizes
+	 */
+	public Kmer(String source, int pos, long[] sizes, int offset, int k) {
 		this.source = source;
 		this.pos = pos;
-		this.sizelist = sizelist;
-		this.realsizelist = realsizelist;
-		this.errorposlist = errorposlist;
+		this.sizes = sizes;
+		this.offset = offset;
+		this.k = k;
+		this.realsizes = sizes;
+		this.realoffset = offset;
+		this.realk = k;
+		this.errorpos = NO_ERROR;
 	}
 
-	public Kmer(String source, int pos, List<Long> realsizelist, List<Integer> errorposlist) {
-		this.source = source;
-		this.pos = pos;
-		this.sizelist = getSizeList(realsizelist, errorposlist);
-		this.realsizelist = realsizelist;
-		this.errorposlist = errorposlist;
+	public Kmer(String source, int pos, long[] sizes) {
+		this(source, pos, sizes, 0, sizes.length);
 	}
 
-	public Kmer(String source, int pos, List<Long> sizelist) {
+	/**
+	 * Constructs a kmer with false signals. The sizes of segments separated by a false signal at <code>errorpos</code> are summed up.
+	 * 
+	 * @param source
+	 *            name of the source
+	 * @param pos
+	 *            position of the first segment on the source
+	 * @param realsizes
+	 *            the array holding the real sizes
+	 * @param realoffset
+	 *            index of the first real size in <code>realsizes</code>
+	 * @param realk
+	 *            number of real sizes
+	 * @param errorpos
+	 *            the index of the false signal after each erroneous segment, in ascending order
+	 */
+	public Kmer(String source, int pos, long[] realsizes, int realoffset, int realk, int[] errorpos) {
 		this.source = source;
 		this.pos = pos;
-		this.sizelist = sizelist;
-		this.realsizelist = sizelist;
-		this.errorposlist = new ArrayList<Integer>();
+		this.realsizes = realsizes;
+		this.realoffset = realoffset;
+		this.realk = realk;
+		this.errorpos = errorpos;
+		this.sizes = new long[realk];
+		long cumSize = 0;
+		int e = 0;
+		for (int i = 0; i < realk; i++) {
+			cumSize += realsizes[realoffset + i];
+			while (e < errorpos.length && errorpos[e] < i)
+				e++;
+			if (e == errorpos.length || errorpos[e] != i) {
+				sizes[k++] = cumSize;
+				cumSize = 0;
+			}
+		}
+		this.offset = 0;
 	}
 
-	public Kmer(Kmer kmer) {
+	private Kmer(Kmer kmer, long[] sizes) {
 		this.source = kmer.source;
 		this.pos = kmer.pos;
-		this.sizelist = new ArrayList<Long>(kmer.sizelist);
-		this.realsizelist = new ArrayList<Long>(kmer.realsizelist);
-		this.errorposlist = new ArrayList<Integer>(kmer.errorposlist);
+		this.sizes = sizes;
+		this.offset = 0;
+		this.k = sizes.length;
+		this.realsizes = kmer.realsizes;
+		this.realoffset = kmer.realoffset;
+		this.realk = kmer.realk;
+		this.errorpos = kmer.errorpos;
 	}
 
-	private List<Long> getSizeList(List<Long> realsizelist, List<Integer> errorposlist) {
-		List<Long> sizelist = new ArrayList<Long>();
-		long cumSize = 0;
-		for (int i = 0; i < realsizelist.size(); i++) {
-			cumSize += realsizelist.get(i);
-			if (!errorposlist.contains(i)) {
-				sizelist.add(cumSize);
-				cumSize = 0;
-			}
-		}
-		return sizelist;
+	public Kmer(Kmer kmer) {
+		this.source = kmer.source;
+		this.pos = kmer.pos;
+		this.sizes = kmer.sizes;
+		this.offset = kmer.offset;
+		this.k = kmer.k;
+		this.realsizes = kmer.realsizes;
+		this.realoffset = kmer.realoffset;
+		this.realk = kmer.realk;
+		this.errorpos = kmer.errorpos;
 	}
 
 	public long get(int pos) {
-		return sizelist.get(pos);
+		if (pos < 0 || pos >= k)
+			throw new IndexOutOfBoundsException("Index: " + pos + ", Size: " + k);
+		return sizes[offset + pos];
 	}
 
 	public int compare(Kmer k, int pos) {
-		return Long.valueOf(this.get(pos)).compareTo(Long.valueOf(k.get(pos)));
+		return Long.compare(this.get(pos), k.get(pos));
 	}
 
 	public int k() {
-		return sizelist.size();
+		return k;
 	}
 
 	public long length() {
 		long total = 0;
-		for (Long i : sizelist)
-			total += i;
+		for (int i = 0; i < k; i++)
+			total += sizes[offset + i];
 		total--;
 		return total;
 	}
 
+	public long getRealSize(int pos) {
+		return realsizes[realoffset + pos];
+	}
+
+	/**
+	 * Returns the number of segments including those separated by false signals
+	 * 
+	 * @return the number of real segments
+	 */
+	public int getRealK() {
+		return realk;
+	}
+
 	public int getErrorNo() {
-		return errorposlist.size();
+		return errorpos.length;
+	}
+
+	public int getErrorPos(int index) {
+		return errorpos[index];
+	}
+
+	/**
+	 * Appends the sizes of <code>kmer</code> lying beyond this kmer, where <code>kmer</code> starts <code>shift</code> segments after this kmer. The view is extended directly if both kmers view the same array continuously; otherwise the sizes are copied to a new array.
+	 * 
+	 * @param kmer
+	 *            the kmer to be appended
+	 * @param shift
+	 *            the number of segments between the start of this kmer and <code>kmer</code>
+	 */
+	void append(Kmer kmer, int shift) {
+		int newk = shift + kmer.k;
+		if (newk <= k)
+			return;
+		if (kmer.sizes != sizes || kmer.offset != offset + shift) {
+			long[] newsizes = new long[newk];
+			System.arraycopy(sizes, offset, newsizes, 0, k);
+			System.arraycopy(kmer.sizes, kmer.offset + k - shift, newsizes, k, newk - k);
+			sizes = newsizes;
+			offset = 0;
+		}
+		k = newk;
 	}
 
 	public Kmer newKmer(double sizeratio, int extrasize) {
-		List<Long> newsizelist = new ArrayList<Long>();
-		for (int i = 0; i < this.sizelist.size(); i++)
-			newsizelist.add((long) (this.sizelist.get(i) * sizeratio) + extrasize);
-		return new Kmer(this.source, this.pos, newsizelist, realsizelist, errorposlist);
+		long[] newsizes = new long[k];
+		for (int i = 0; i < k; i++)
+			newsizes[i] = (long) (sizes[offset + i] * sizeratio) + extrasize;
+		return new Kmer(this, newsizes);
 	}
 
 	public boolean limitRange(Kmer kmer, int measure, double ear) {
 		double ubound = 1 + ear;
 		double lbound = 1 - ear;
-		for (int pos = 0; pos < k(); pos++) {
-			double newubound = (kmer.get(pos) + measure) / (double) get(pos);
-			double newlbound = (kmer.get(pos) - measure) / (double) get(pos);
+		for (int pos = 0; pos < k; pos++) {
+			double newubound = (kmer.get(pos) + measure) / (double) sizes[offset + pos];
+			double newlbound = (kmer.get(pos) - measure) / (double) sizes[offset + pos];
 			if (newubound < ubound)
 				ubound = newubound;
 			if (newlbound > lbound)
@@ -139,7 +231,7 @@ public class Kmer {
 	@Override
 	public String toString() {
 		String s = "";
-		for (int i = 0; i < sizelist.size(); i++)
+		for (int i = 0; i < k; i++)
 			s += Long.toString(this.get(i)) + " ";
 		return s;
 	}
@@ -149,7 +241,7 @@ public class Kmer {
 		return new Comparator<Kmer>() {
 			@Override
 			public int compare(Kmer k1, Kmer k2) {
-				return Long.valueOf(k1.get(x)).compareTo(Long.valueOf(k2.get(x)));
+				return Long.compare(k1.get(x), k2.get(x));
 			}
 		};
 
@@ -161,7 +253,7 @@ public class Kmer {
 			@Override
 			public int compare(Kmer k1, Kmer k2) {
 				int now;
-				now = Long.valueOf(k1.get(x)).compareTo(Long.valueOf(k2.get(x)));
+				now = Long.compare(k1.get(x), k2.get(x));
 				if (now != 0)
 					return now;
 				else {
@@ -0,0 +1,230 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import aldenjava.opticalmapping.data.data.DataNode;
+
+/**
+ * Primitive columns of kmers shared by the in-memory <code>KmerIndex</code> implementations. Each kmer is identified by its row, and its sizes are stored in row-major order, i.e. size at position <code>i</code> of kmer <code>id</code> is stored at <code>id * k + i</code>.
+ * 
+ * @author Alden
+ *
+ */
+class KmerColumns {
+
+	final int k;
+	final String[] refNames;
+	final int[] refIds;
+	final int[] positions;
+	final long[] sizes;
+
+	private KmerColumns(int k, String[] refNames, int[] refIds, int[] positions, long[] sizes) {
+		this.k = k;
+		this.refNames = refNames;
+		this.refIds = refIds;
+		this.positions = positions;
+		this.sizes = sizes;
+	}
+
+	/**
+	 * Extracts all kmers of the reference. The kmers are identical to those from {@link DataNode#getKmerWord(LinkedHashMap, int, long)}, but no <code>Kmer</code> is created.
+	 * 
+	 * @param optrefmap
+	 *            the reference
+	 * @param k
+	 *            kmer length
+	 * @param maxnosignalregion
+	 *            maximum size of a segment to be included in kmers
+	 * @return the kmer columns
+	 */
+	static KmerColumns fromReference(LinkedHashMap<String, DataNode> optrefmap, int k, long maxnosignalregion) {
+		String[] refNames = optrefmap.keySet().toArray(new String[optrefmap.size()]);
+		int total = 0;
+		for (DataNode ref : optrefmap.values())
+			for (int i = 1; i < ref.getTotalSegment() - k; i++)
+				if (isValidKmer(ref, i, k, maxnosignalregion))
+					total++;
+		int[] refIds = new int[total];
+		int[] positions = new int[total];
+		long[] sizes = new long[total * k];
+		int id = 0;
+		int refId = 0;
+		for (DataNode ref : optrefmap.values()) {
+			for (int i = 1; i < ref.getTotalSegment() - k; i++)
+				if (isValidKmer(ref, i, k, maxnosignalregion)) {
+					refIds[id] = refId;
+					positions[id] = i;
+					for (int j = 0; j < k; j++)
+						sizes[id * k + j] = ref.getRefl(i + j);
+					id++;
+				}
+			refId++;
+		}
+		return new KmerColumns(k, refNames, refIds, positions, sizes);
+	}
+
+	/**
+	 * Stores the given kmers. All kmers must have the length <code>k</code>.
+	 * 
+	 * @param kmerList
+	 *            the kmers
+	 * @param k
+	 *            kmer length
+	 * @return the kmer columns
+	 */
+	static KmerColumns fromKmerList(List<Kmer> kmerList, int k) {
+		List<String> nameList = new ArrayList<String>();
+		LinkedHashMap<String, Integer> nameIdMap = new LinkedHashMap<String, Integer>();
+		int[] refIds = new int[kmerList.size()];
+		int[] positions = new int[kmerList.size()];
+		long[] sizes = new long[kmerList.size() * k];
+		int id = 0;
+		for (Kmer kmer : kmerList) {
+			if (kmer.k() != k)
+				throw new IllegalArgumentException("Kmer length " + kmer.k() + " is inconsistent with the index kmer length " + k);
+			Integer refId = nameIdMap.get(kmer.source);
+			if (refId == null) {
+				refId = nameList.size();
+				nameIdMap.put(kmer.source, refId);
+				nameList.add(kmer.source);
+			}
+			refIds[id] = refId;
+			positions[id] = kmer.pos;
+			for (int j = 0; j < k; j++)
+				sizes[id * k + j] = kmer.get(j);
+			id++;
+		}
+		return new KmerColumns(k, nameList.toArray(new String[nameList.size()]), refIds, positions, sizes);
+	}
+
+	private static boolean isValidKmer(DataNode ref, int pos, int k, long maxnosignalregion) {
+		for (int j = pos; j < pos + k; j++)
+			if (ref.getRefl(j) > maxnosignalregion)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Sorts the ids according to the keys using a stable bottom-up merge sort, so that no boxing is needed
+	 * 
+	 * @param keys
+	 *            the key of each id
+	 * @return ids sorted by keys
+	 */
+	static int[] sortIds(long[] keys) {
+		int total = keys.length;
+		int[] ids = new int[total];
+		for (int i = 0; i < total; i++)
+			ids[i] = i;
+		int[] buffer = new int[total];
+		for (int width = 1; width < total; width *= 2) {
+			for (int lo = 0; lo < total; lo += width * 2) {
+				int mid = Math.min(lo + width, total);
+				int hi = Math.min(lo + width * 2, total);
+				int a = lo;
+				int b = mid;
+				int c = lo;
+				while (a < mid && b < hi)
+					buffer[c++] = (keys[ids[b]] < keys[ids[a]]) ? ids[b++] : ids[a++];
+				while (a < mid)
+					buffer[c++] = ids[a++];
+				while (b < hi)
+					buffer[c++] = ids[b++];
+			}
+			int[] tmp = ids;
+			ids = buffer;
+			buffer = tmp;
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns new columns where row <code>i</code> holds the kmer at row <code>order[i]</code> of these columns
+	 * 
+	 * @param order
+	 *            the new order of rows
+	 * @return the reordered columns
+	 */
+	KmerColumns reorder(int[] order) {
+		int[] newRefIds = new int[order.length];
+		int[] newPositions = new int[order.length];
+		long[] newSizes = new long[order.length * k];
+		for (int i = 0; i < order.length; i++) {
+			newRefIds[i] = refIds[order[i]];
+			newPositions[i] = positions[order[i]];
+			System.arraycopy(sizes, order[i] * k, newSizes, i * k, k);
+		}
+		return new KmerColumns(k, refNames, newRefIds, newPositions, newSizes);
+	}
+
+	int size() {
+		return positions.length;
+	}
+
+	/**
+	 * Checks if the sizes of the kmer lie within <code>lower</code> and <code>upper</code> (both inclusive) at every position
+	 */
+	boolean inside(int id, long[] lower, long[] upper) {
+		int offset = id * k;
+		for (int i = 0; i < k; i++) {
+			long size = sizes[offset + i];
+			if (size < lower[i] || size > upper[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @see KmerIndex#limitRange(int, Kmer, int, double)
+	 */
+	boolean limitRange(int id, Kmer kmer, int measure, double ear) {
+		double ubound = 1 + ear;
+		double lbound = 1 - ear;
+		int offset = id * k;
+		for (int pos = 0; pos < k; pos++) {
+			double newubound = (kmer.get(pos) + measure) / (double) sizes[offset + pos];
+			double newlbound = (kmer.get(pos) - measure) / (double) sizes[offset + pos];
+			if (newubound < ubound)
+				ubound = newubound;
+			if (newlbound > lbound)
+				lbound = newlbound;
+		}
+		return (ubound >= lbound);
+	}
+
+	Kmer getKmer(int id) {
+		return new Kmer(refNames[refIds[id]], positions[id], sizes, id * k, k);
+	}
+}
@@ -0,0 +1,96 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+/**
+ * An index of reference kmers answering range queries. Each indexed kmer is identified by an integer id, such that no <code>Kmer</code> is created until a hit is confirmed.
+ * 
+ * @author Alden
+ *
+ */
+public interface KmerIndex {
+
+	/**
+	 * Returns the ids of all kmers whose sizes lie within <code>lower</code> and <code>upper</code> (both inclusive) at every position.
+	 * 
+	 * @param lower
+	 *            the lower bound of size at each position
+	 * @param upper
+	 *            the upper bound of size at each position
+	 * @return ids of matched kmers
+	 */
+	public int[] query(long[] lower, long[] upper);
+
+	/**
+	 * Answers a batch of range queries, such as all kmers of a query molecule. The result of query <code>i</code> is identical to <code>query(lower[i], upper[i])</code>.
+	 * 
+	 * @param lower
+	 *            the lower bound of size at each position of each query
+	 * @param upper
+	 *            the upper bound of size at each position of each query
+	 * @return ids of matched kmers of each query
+	 */
+	public int[][] query(long[][] lower, long[][] upper);
+
+	/**
+	 * Checks if a common scaling factor within <code>1 - ear</code> and <code>1 + ear</code> exists between the indexed kmer and the query <code>kmer</code>. This is equivalent to {@link Kmer#limitRange(Kmer, int, double)} on the indexed kmer.
+	 * 
+	 * @param id
+	 *            id of the indexed kmer
+	 * @param kmer
+	 *            the query kmer
+	 * @param measure
+	 *            measurement error
+	 * @param ear
+	 *            error acceptable range
+	 * @return <code>true</code> if the scaling range is not empty
+	 */
+	public boolean limitRange(int id, Kmer kmer, int measure, double ear);
+
+	/**
+	 * Creates a <code>Kmer</code> for the indexed kmer
+	 * 
+	 * @param id
+	 *            id of the indexed kmer
+	 * @return a new <code>Kmer</code>
+	 */
+	public Kmer getKmer(int id);
+
+	public String getSource(int id);
+
+	public int getPos(int id);
+
+	public long getSize(int id, int pos);
+
+	public int k();
+
+	public int size();
+}
@@ -30,9 +30,6 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import aldenjava.opticalmapping.Cigar;
 
 /**
@@ -45,8 +42,8 @@ public class Seed extends Kmer {
 	public double rangeUBound = -1;
 	public double rangeLBound = -1;
 
-	public Seed(String source, int pos, List<Long> sizelist, Kmer kmerpointer) {
-		super(source, pos, sizelist);
+	public Seed(String source, int pos, long[] sizes, Kmer kmerpointer) {
+		super(source, pos, sizes);
 		this.kmerpointer = kmerpointer;
 	}
 
@@ -61,33 +58,32 @@ public class Seed extends Kmer {
 			System.err.println("Do not support errors in both ref-kmer and frag-kmer.");
 			return null;
 		}
-		List<Integer> errorposlist;
+		Kmer errorkmer;
 		char c;
 		if (kmerpointer.getErrorNo() > 0) {
-			errorposlist = kmerpointer.errorposlist;
+			errorkmer = kmerpointer;
 			c = 'I';
 		} else if (super.getErrorNo() > 0) {
-			errorposlist = super.errorposlist;
+			errorkmer = this;
 			c = 'D';
 		} else {
-			errorposlist = new ArrayList<Integer>();
+			errorkmer = this;
 			c = 'M';
 		}
 
-		StringBuilder precigar = new StringBuilder();
+		Cigar cigar = new Cigar();
 		int pointer = 0;
-		for (int i = 0; i < realsizelist.size(); i++) {
-			precigar.append('M');
-			while (pointer < errorposlist.size() && errorposlist.get(pointer) == i) {
-				precigar.append(c);
+		for (int i = 0; i < getRealK(); i++) {
+			if (i > 0 || flankingMatch)
+				cigar.append('M');
+			while (pointer < errorkmer.getErrorNo() && errorkmer.getErrorPos(pointer) == i) {
+				cigar.append(c);
 				pointer++;
 			}
 		}
-		precigar.append('M');
 		if (flankingMatch)
-			return new Cigar(precigar.toString());
-		else
-			return new Cigar(precigar.substring(1, precigar.length() - 1));
+			cigar.append('M');
+		return cigar;
 
 	}
 
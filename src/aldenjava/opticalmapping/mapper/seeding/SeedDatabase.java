@@ -30,11 +30,15 @@
 
 package aldenjava.opticalmapping.mapper.seeding;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import joptsimple.OptionSet;
@@ -56,7 +60,9 @@ public class SeedDatabase implements SelectableMode {
 	private List<List<Kmer>> databaseSeedList;
 	private List<GenomicPosNode> restrictedRegions;
 	private FastConversionTable table = FastConversionTable.standardTable();
-	private LinkedHashMap<String, List<Kmer>> fastDatabaseSeedMap;
+	private KmerIndex kmerIndex;
+	private String indexFile;
+	private long referenceChecksum;
 
 	private int k;
 	private int maxnosignalregion;
@@ -108,11 +114,27 @@ public class SeedDatabase implements SelectableMode {
 		this.maxnosignalregion = maxnosignalregion;
 	}
 
+	/**
+	 * Uses a seed index file instead of building the index in memory. The index file is only used in seeding mode 3, which is also selected by auto-selection.
+	 * 
+	 * @param indexFile
+	 *            the seed index file
+	 * @param referenceChecksum
+	 *            checksum of the reference file
+	 * @see SeedIndexFile
+	 */
+	public void setIndexFile(String indexFile, long referenceChecksum) {
+		this.indexFile = indexFile;
+		this.referenceChecksum = referenceChecksum;
+	}
+
 	public void buildDatabase() {
-		if (referenceChanged) // To prevent rebuilding reference frequently
+		if (referenceChanged) { // To prevent rebuilding reference frequently
 			switch (seedingmode) {
 				case -1:
-					if (k > 10)
+					if (indexFile != null)
+						seedingmode = 3;
+					else if (k > 10)
 						seedingmode = 1;
 					else
 						seedingmode = 2;
@@ -124,46 +146,79 @@ public class SeedDatabase implements SelectableMode {
 				case 2:
 					buildBinningDatabase();
 					break;
+				case 3:
+					buildColumnarDatabase();
+					break;
+				case 4:
+					buildKdTreeDatabase();
+					break;
 				default:
 					System.err.println("Warning! Unknown mode " + Integer.toString(seedingmode));
 					buildSortListDatabase();
 					break;
 			}
+			referenceChanged = false;
+		}
 	}
 
 	private void buildSortListDatabase() {
 		// this.databaseSeedList = convertReference(optrefmap, k, maxnosignalregion);
-		if (restrictedRegions != null)
-			this.databaseSeedList = convertKmerList(DataNode.getKmerWord(optrefmap, k, maxnosignalregion, restrictedRegions), k);
-		else
-			this.databaseSeedList = convertKmerList(DataNode.getKmerWord(optrefmap, k, maxnosignalregion), k);
+		this.databaseSeedList = convertKmerList(DataNode.getKmerWord(optrefmap, k, maxnosignalregion), k);
 	}
 
 	private void buildBinningDatabase() {
-		buildSortListDatabase();
-		processFastAccessDatabase(k);
+		this.kmerIndex = new BinnedKmerIndex(optrefmap, k, maxnosignalregion, table);
 	}
 
-	public void restrictRegion(List<GenomicPosNode> regionList) {
-		if (regionList == null && restrictedRegions == null)
-			referenceChanged = false;
-		else {
-			this.restrictedRegions = regionList;
-			referenceChanged = true;
-		}
+	private void buildColumnarDatabase() {
+		if (indexFile != null)
+			try {
+				this.kmerIndex = SeedIndexFile.read(indexFile, referenceChecksum, k, maxnosignalregion, seedingmode);
+				return;
+			} catch (IOException e) {
+				System.err.println("Warning! Seed index " + indexFile + " is not used: " + e.getMessage() + " The index is built in memory instead.");
+			}
+		this.kmerIndex = new ColumnarKmerIndex(optrefmap, k, maxnosignalregion);
 	}
 
-	private void processFastAccessDatabase(int k) {
-		// generate words instead of
-		fastDatabaseSeedMap = new LinkedHashMap<String, List<Kmer>>();
-		List<Kmer> kmerlist = databaseSeedList.get(0);
-		for (Kmer kmer : kmerlist) {
-			String key = table.convertKmer(kmer);
-			if (!fastDatabaseSeedMap.containsKey(key))
-				fastDatabaseSeedMap.put(key, new ArrayList<Kmer>());
-			fastDatabaseSeedMap.get(key).add(kmer);
-		}
+	private void buildKdTreeDatabase() {
+		this.kmerIndex = new KdTreeKmerIndex(optrefmap, k, maxnosignalregion);
+	}
 
+	/**
+	 * Writes the built index to a seed index file
+	 * 
+	 * @param filename
+	 *            the output seed index file
+	 * @param referenceChecksum
+	 *            checksum of the reference file
+	 * @throws IOException
+	 * @see SeedIndexFile
+	 */
+	public void writeIndex(String filename, long referenceChecksum) throws IOException {
+		if (!(kmerIndex instanceof ColumnarKmerIndex))
+			throw new IllegalStateException("Seed index is only available in seeding mode 3.");
+		SeedIndexFile.write(filename, (ColumnarKmerIndex) kmerIndex, referenceChecksum, maxnosignalregion, seedingmode);
+	}
+
+	/**
+	 * Restricts the reference kmers returned to those lying completely within <code>regionList</code>. The restriction is applied on the query results, so the database is not rebuilt.
+	 * 
+	 * @param regionList
+	 *            Restricted regions. An empty list represents no reference kmer is returned. <code>null</code> removes the restriction
+	 */
+	public void restrictRegion(List<GenomicPosNode> regionList) {
+		this.restrictedRegions = regionList;
+	}
+
+	private boolean isInRestrictedRegions(Kmer kmer) {
+		long[] refp = optrefmap.get(kmer.source).refp;
+		long start = refp[kmer.pos - 1];
+		long stop = refp[kmer.pos + kmer.k() - 1];
+		for (GenomicPosNode region : restrictedRegions)
+			if (region.ref.equals(kmer.source) && start >= region.start && stop <= region.stop)
+				return true;
+		return false;
 	}
 
 	private List<List<Kmer>> convertKmerList(List<Kmer> kmerList, int kmerlen) {
@@ -179,64 +234,98 @@ public class SeedDatabase implements SelectableMode {
 		return kmerlistlist;
 	}
 
-	public List<Kmer> getKmerListFromBinning(Kmer kmer, double ear, int measure) {
-		List<Kmer> kmerList = new ArrayList<Kmer>();
-		List<String> keylist = table.convertKmer(kmer, ear, measure);
-		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
-		Kmer largekmer = kmer.newKmer(1 + ear, measure);
-		for (String key : keylist) {
-			List<Kmer> kmerlist = fastDatabaseSeedMap.get(key);
-			if (kmerlist != null)
-				for (Kmer refkmer : kmerlist) {
-					boolean wrong = false;
-					for (int i = 0; i < refkmer.k(); i++)
-						if (refkmer.get(i) < smallkmer.get(i) || refkmer.get(i) > largekmer.get(i)) {
-							wrong = true;
-							break;
-						}
-					if (!wrong) {
-						if (refkmer.limitRange(kmer, measure, ear))
-							kmerList.add(refkmer);
-					}
-				}
-		}
-		return kmerList;
+	private static long[] getBound(Kmer kmer, double sizeratio, int extrasize) {
+		long[] bound = new long[kmer.k()];
+		for (int i = 0; i < kmer.k(); i++)
+			bound[i] = (long) (kmer.get(i) * sizeratio) + extrasize;
+		return bound;
+	}
 
+	/**
+	 * Returns the first index in <code>refkmerlist</code> from <code>from</code> whose size at <code>pos</code> is not less than <code>key</code>, given that all kmers before <code>from</code> are smaller than <code>key</code>. The search gallops from <code>from</code>, so a sweep of ascending keys costs much less than independent binary searches.
+	 */
+	private static int gallopLowerBound(List<Kmer> refkmerlist, int pos, long key, int from) {
+		int limit = refkmerlist.size();
+		if (from >= limit || refkmerlist.get(from).get(pos) >= key)
+			return from;
+		int lo = from;
+		int step = 1;
+		int hi = from + step;
+		while (hi < limit && refkmerlist.get(hi).get(pos) < key) {
+			lo = hi;
+			step *= 2;
+			hi = from + step;
+		}
+		if (hi > limit)
+			hi = limit;
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (refkmerlist.get(mid).get(pos) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
 	}
 
 	public List<Kmer> getKmerListFromSortList(Kmer kmer, double ear, int measure) {
-		List<Kmer> matchedkmerlist = null;
-		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
-		Kmer largekmer = kmer.newKmer(1 + ear, measure);
-		// long smalllen = smallkmer.length();
-		// long largelen = largekmer.length();
-		// HashSet<Kmer> kmerHash = new HashSet<Kmer>();
+		long[] lower = getBound(kmer, 1 - ear, measure * -1);
+		long[] upper = getBound(kmer, 1 + ear, measure);
+		int[] starts = new int[kmer.k()];
+		int[] stops = new int[kmer.k()];
 		for (int i = 0; i < kmer.k(); i++) {
+			starts[i] = gallopLowerBound(databaseSeedList.get(i), i, lower[i], 0);
+			stops[i] = gallopLowerBound(databaseSeedList.get(i), i, upper[i] + 1, 0);
+		}
+		return getKmerListFromSortList(kmer, ear, measure, starts, stops);
+	}
+
+	/**
+	 * Returns the matched kmers for a batch of query kmers. The queries are sorted by the bounds at each position, and each sorted list is swept once with galloping search.
+	 */
+	private List<List<Kmer>> getKmerListFromSortList(List<Kmer> kmerList, double ear, int measure) {
+		int n = kmerList.size();
+		int kmerlen = databaseSeedList.size();
+		long[][] lower = new long[n][];
+		long[][] upper = new long[n][];
+		for (int q = 0; q < n; q++) {
+			lower[q] = getBound(kmerList.get(q), 1 - ear, measure * -1);
+			upper[q] = getBound(kmerList.get(q), 1 + ear, measure);
+		}
+		int[][] starts = new int[n][kmerlen];
+		int[][] stops = new int[n][kmerlen];
+		long[] keys = new long[n];
+		for (int i = 0; i < kmerlen; i++) {
 			List<Kmer> refkmerlist = databaseSeedList.get(i);
-			int startpos = Collections.binarySearch(refkmerlist, smallkmer, Kmer.comparator(i));
-			if (startpos < 0)
-				startpos = (startpos + 1) * -1;
-			else {
-				while (startpos >= 0) {
-					if (smallkmer.compare(refkmerlist.get(startpos), i) > 0)
-						break;
-					startpos--;
-				}
-				startpos++;
+			for (int q = 0; q < n; q++)
+				keys[q] = lower[q][i];
+			int from = 0;
+			for (int q : KmerColumns.sortIds(keys)) {
+				from = gallopLowerBound(refkmerlist, i, lower[q][i], from);
+				starts[q][i] = from;
 			}
-			int stoppos = Collections.binarySearch(refkmerlist, largekmer, Kmer.comparator(i));
-			if (stoppos < 0)
-				stoppos = (stoppos + 1) * -1;
-			else {
-				while (stoppos < refkmerlist.size()) {
-					if (largekmer.compare(refkmerlist.get(stoppos), i) < 0)
-						break;
-					stoppos++;
-				}
+			for (int q = 0; q < n; q++)
+				keys[q] = upper[q][i];
+			from = 0;
+			for (int q : KmerColumns.sortIds(keys)) {
+				from = gallopLowerBound(refkmerlist, i, upper[q][i] + 1, from);
+				stops[q][i] = from;
 			}
-			stoppos--;
+		}
+		List<List<Kmer>> kmerListList = new ArrayList<List<Kmer>>(n);
+		for (int q = 0; q < n; q++)
+			kmerListList.add(getKmerListFromSortList(kmerList.get(q), ear, measure, starts[q], stops[q]));
+		return kmerListList;
+	}
 
-			List<Kmer> sublist = refkmerlist.subList(startpos, stoppos + 1);
+	/**
+	 * Intersects the kmers within the bounds at each position, given the range of kmers within the bounds in the sorted list of each position
+	 */
+	private List<Kmer> getKmerListFromSortList(Kmer kmer, double ear, int measure, int[] starts, int[] stops) {
+		List<Kmer> matchedkmerlist = null;
+		for (int i = 0; i < kmer.k(); i++) {
+			List<Kmer> sublist = databaseSeedList.get(i).subList(starts[i], stops[i]);
 			if (matchedkmerlist == null) {
 				matchedkmerlist = new ArrayList<Kmer>(sublist);
 				// matchedkmerlist = new ArrayList<Kmer>();
@@ -272,18 +361,89 @@ public class SeedDatabase implements SelectableMode {
 
 	}
 
+	private List<Kmer> getKmerListFromIndex(Kmer kmer, int[] ids, double ear, int measure) {
+		List<Kmer> kmerList = new ArrayList<Kmer>();
+		for (int id : ids)
+			if (kmerIndex.limitRange(id, kmer, measure, ear))
+				kmerList.add(kmerIndex.getKmer(id));
+		return kmerList;
+	}
+
+	public List<Kmer> getKmerListFromIndex(Kmer kmer, double ear, int measure) {
+		return getKmerListFromIndex(kmer, kmerIndex.query(getBound(kmer, 1 - ear, measure * -1), getBound(kmer, 1 + ear, measure)), ear, measure);
+	}
+
+	private List<List<Kmer>> getKmerListFromIndex(List<Kmer> kmerList, double ear, int measure) {
+		int n = kmerList.size();
+		long[][] lower = new long[n][];
+		long[][] upper = new long[n][];
+		for (int q = 0; q < n; q++) {
+			lower[q] = getBound(kmerList.get(q), 1 - ear, measure * -1);
+			upper[q] = getBound(kmerList.get(q), 1 + ear, measure);
+		}
+		int[][] ids = kmerIndex.query(lower, upper);
+		List<List<Kmer>> kmerListList = new ArrayList<List<Kmer>>(n);
+		for (int q = 0; q < n; q++)
+			kmerListList.add(getKmerListFromIndex(kmerList.get(q), ids[q], ear, measure));
+		return kmerListList;
+	}
+
+	private List<Kmer> restrictKmerList(List<Kmer> matchedkmerlist) {
+		List<Kmer> kmerList = new ArrayList<Kmer>();
+		for (Kmer matchedkmer : matchedkmerlist)
+			if (isInRestrictedRegions(matchedkmer))
+				kmerList.add(matchedkmer);
+		return kmerList;
+	}
+
 	public List<Kmer> getKmerList(Kmer kmer, double ear, int measure) {
+		if (restrictedRegions == null)
+			return queryKmerList(kmer, ear, measure);
+		if (restrictedRegions.isEmpty())
+			return new ArrayList<Kmer>();
+		return restrictKmerList(queryKmerList(kmer, ear, measure));
+	}
+
+	/**
+	 * Returns the matched reference kmers of each query kmer. The result of each query kmer is identical to {@link #getKmerList(Kmer, double, int)}, but the index is searched for all query kmers together.
+	 * 
+	 * @param kmerList
+	 *            the query kmers
+	 * @param ear
+	 *            error acceptable range
+	 * @param measure
+	 *            measurement error
+	 * @return a list of matched reference kmers for each query kmer
+	 */
+	public List<List<Kmer>> getKmerList(List<Kmer> kmerList, double ear, int measure) {
+		List<List<Kmer>> kmerListList;
+		if (restrictedRegions != null && restrictedRegions.isEmpty()) {
+			kmerListList = new ArrayList<List<Kmer>>(kmerList.size());
+			for (int q = 0; q < kmerList.size(); q++)
+				kmerListList.add(new ArrayList<Kmer>());
+			return kmerListList;
+		}
+		kmerListList = queryKmerList(kmerList, ear, measure);
+		if (restrictedRegions != null)
+			for (int q = 0; q < kmerListList.size(); q++)
+				kmerListList.set(q, restrictKmerList(kmerListList.get(q)));
+		return kmerListList;
+	}
+
+	private List<Kmer> queryKmerList(Kmer kmer, double ear, int measure) {
 		switch (seedingmode) {
 			case -1:
 				if (k > 10)
 					seedingmode = 1;
 				else
 					seedingmode = 2;
-				return getKmerList(kmer, ear, measure);
+				return queryKmerList(kmer, ear, measure);
 			case 1:
 				return getKmerListFromSortList(kmer, ear, measure);
 			case 2:
-				return getKmerListFromBinning(kmer, ear, measure);
+			case 3:
+			case 4:
+				return getKmerListFromIndex(kmer, ear, measure);
 			default:
 				System.err.println("Warning! Unknown mode " + Integer.toString(seedingmode));
 				return getKmerListFromSortList(kmer, ear, measure);
@@ -291,9 +451,28 @@ public class SeedDatabase implements SelectableMode {
 
 	}
 
-	public List<Seed> getSeed(Kmer kmer, double ear, int measure) {
+	private List<List<Kmer>> queryKmerList(List<Kmer> kmerList, double ear, int measure) {
+		switch (seedingmode) {
+			case -1:
+				if (k > 10)
+					seedingmode = 1;
+				else
+					seedingmode = 2;
+				return queryKmerList(kmerList, ear, measure);
+			case 1:
+				return getKmerListFromSortList(kmerList, ear, measure);
+			case 2:
+			case 3:
+			case 4:
+				return getKmerListFromIndex(kmerList, ear, measure);
+			default:
+				System.err.println("Warning! Unknown mode " + Integer.toString(seedingmode));
+				return getKmerListFromSortList(kmerList, ear, measure);
+		}
+
+	}
 
-		List<Kmer> matchedkmerlist = getKmerList(kmer, ear, measure);
+	private List<Seed> getSeed(Kmer kmer, List<Kmer> matchedkmerlist, double ear, int measure) {
 		List<Seed> seedlist = new ArrayList<Seed>();
 		for (Kmer matchedkmer : matchedkmerlist) {
 
@@ -302,7 +481,10 @@ public class SeedDatabase implements SelectableMode {
 				seedlist.add(s);
 		}
 		return seedlist;
+	}
 
+	public List<Seed> getSeed(Kmer kmer, double ear, int measure) {
+		return getSeed(kmer, getKmerList(kmer, ear, measure), ear, measure);
 	}
 
 	public List<Seed> getJoinedSeed(Kmer kmer, double ear, int measure) {
@@ -310,48 +492,107 @@ public class SeedDatabase implements SelectableMode {
 		return seedJoin(seedlist);
 	}
 
+	/**
+	 * Returns the joined seeds of each query kmer. The result of each query kmer is identical to {@link #getJoinedSeed(Kmer, double, int)}, but the index is searched for all query kmers together, such as all kmers of a molecule.
+	 * 
+	 * @param kmerList
+	 *            the query kmers
+	 * @param ear
+	 *            error acceptable range
+	 * @param measure
+	 *            measurement error
+	 * @return a list of joined seeds for each query kmer
+	 */
+	public List<List<Seed>> getJoinedSeed(List<Kmer> kmerList, double ear, int measure) {
+		List<List<Kmer>> matchedkmerlistlist = getKmerList(kmerList, ear, measure);
+		List<List<Seed>> seedlistlist = new ArrayList<List<Seed>>(kmerList.size());
+		for (int q = 0; q < kmerList.size(); q++)
+			seedlistlist.add(seedJoin(getSeed(kmerList.get(q), matchedkmerlistlist.get(q), ear, measure)));
+		return seedlistlist;
+	}
+
+	/**
+	 * Joins seeds of consecutive kmers lying on the same diagonal into a longer seed, if their scaling ranges overlap. Seeds are grouped by reference and diagonal (reference position minus query position) with primitive keys, so each seed is only compared with the seeds at the next position of the same diagonal. The joined seeds are returned in the order of reference and position.
+	 */
 	private List<Seed> seedJoin(List<Seed> pooledseedlist) {
-		Collections.sort(pooledseedlist, Kmer.comparatorSourcePos());
-		List<Seed> joinedseedlist = new ArrayList<Seed>();
-		for (int i = pooledseedlist.size() - 1; i >= 0; i--) {
-			int j = i;
-			while ((pooledseedlist.get(j).pos - pooledseedlist.get(i).pos <= 2) && (pooledseedlist.get(i).source.equalsIgnoreCase(pooledseedlist.get(j).source))) {
-				Seed previousseed = pooledseedlist.get(j);
-				Seed recentseed = pooledseedlist.get(i);
-				if (previousseed.pos - recentseed.pos == 1) {
-					if (previousseed.kmerpointer.pos - recentseed.kmerpointer.pos == 1) {
-						// new
-						double ubound = recentseed.rangeUBound;
-						double lbound = recentseed.rangeLBound;
-						if (ubound > previousseed.rangeUBound)
-							ubound = previousseed.rangeUBound;
-						if (lbound < previousseed.rangeLBound)
-							lbound = previousseed.rangeLBound;
-						if (ubound >= lbound) {
-							recentseed.sizelist.addAll(previousseed.sizelist.subList(recentseed.k() - 1, previousseed.k()));
-							recentseed.kmerpointer.sizelist.addAll(previousseed.kmerpointer.sizelist.subList(recentseed.kmerpointer.k() - 1, previousseed.kmerpointer.k()));
-							recentseed.rangeLBound = lbound;
-							recentseed.rangeUBound = ubound;
-							pooledseedlist.set(j, null);
-
-							break; // only one can be joined, must be only one
-							// joined;
-						}
-					}
+		int n = pooledseedlist.size();
+		List<String> sourceList = new ArrayList<String>();
+		Map<String, Integer> sourceRank = new HashMap<String, Integer>();
+		for (Seed seed : pooledseedlist)
+			if (!sourceRank.containsKey(seed.source)) {
+				sourceRank.put(seed.source, -1);
+				sourceList.add(seed.source);
+			}
+		Collections.sort(sourceList);
+		for (int i = 0; i < sourceList.size(); i++)
+			sourceRank.put(sourceList.get(i), i);
+
+		// Sort by reference and position
+		int[] ranks = new int[n];
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			Seed seed = pooledseedlist.get(i);
+			ranks[i] = sourceRank.get(seed.source);
+			keys[i] = ((long) ranks[i] << 32) | seed.pos;
+		}
+		int[] order = KmerColumns.sortIds(keys);
+		Seed[] seeds = new Seed[n];
+		int[] pos = new int[n];
+		int[] diagonals = new int[n];
+		double[] lbound = new double[n];
+		double[] ubound = new double[n];
+		for (int r = 0; r < n; r++) {
+			Seed seed = pooledseedlist.get(order[r]);
+			seeds[r] = seed;
+			pos[r] = seed.pos;
+			diagonals[r] = seed.pos - seed.kmerpointer.pos;
+			lbound[r] = seed.rangeLBound;
+			ubound[r] = seed.rangeUBound;
+			keys[r] = ((long) ranks[order[r]] << 32) | (diagonals[r] + 0x80000000L);
+		}
+
+		// Stable sort by reference and diagonal, keeping the position order within each diagonal
+		int[] diagonalOrder = KmerColumns.sortIds(keys);
+		int[] next = new int[n];
+		boolean[] joined = new boolean[n];
+		Arrays.fill(next, -1);
+		for (int t = n - 1; t >= 0; t--) {
+			int i = diagonalOrder[t];
+			int u = t + 1;
+			while (u < n && keys[diagonalOrder[u]] == keys[i] && pos[diagonalOrder[u]] == pos[i])
+				u++;
+			for (; u < n && keys[diagonalOrder[u]] == keys[i] && pos[diagonalOrder[u]] == pos[i] + 1; u++) {
+				int j = diagonalOrder[u];
+				if (joined[j])
+					continue;
+				double lb = Math.max(lbound[i], lbound[j]);
+				double ub = Math.min(ubound[i], ubound[j]);
+				if (ub >= lb) {
+					next[i] = j;
+					joined[j] = true;
+					lbound[i] = lb;
+					ubound[i] = ub;
+					break; // only one can be joined
 				}
-				do {
-					j++;
-					if (j == pooledseedlist.size())
-						break;
-				} while (pooledseedlist.get(j) == null);
-				if (j == pooledseedlist.size())
-					break;
+			}
+		}
 
+		List<Seed> joinedseedlist = new ArrayList<Seed>();
+		for (int r = 0; r < n; r++) {
+			if (joined[r])
+				continue;
+			Seed seed = seeds[r];
+			if (next[r] != -1) {
+				for (int j = next[r]; j != -1; j = next[j]) {
+					int offset = pos[j] - pos[r];
+					seed.append(seeds[j], offset);
+					seed.kmerpointer.append(seeds[j].kmerpointer, offset);
+				}
+				seed.rangeLBound = lbound[r];
+				seed.rangeUBound = ubound[r];
 			}
+			joinedseedlist.add(seed);
 		}
-		for (Seed seed : pooledseedlist)
-			if (seed != null)
-				joinedseedlist.add(seed);
 		return joinedseedlist;
 
 	}
@@ -383,7 +624,7 @@ public class SeedDatabase implements SelectableMode {
 		SeedDatabase seedDatabase = new SeedDatabase(optrefmap, databaseSeedList);
 		seedDatabase.setMode(seedingmode);
 		seedDatabase.setParameters(k, maxnosignalregion);
-		seedDatabase.fastDatabaseSeedMap = this.fastDatabaseSeedMap;
+		seedDatabase.kmerIndex = this.kmerIndex;
 		seedDatabase.table = this.table;
 		seedDatabase.referenceChanged = false;
 		return seedDatabase;
@@ -391,80 +632,13 @@ public class SeedDatabase implements SelectableMode {
 
 	public static void assignOptions(ExtendOptionParser parser, int level) {
 		parser.addHeader("Seeding Options", level);
-		parser.accepts("seedingmode", "Seeding mode: 1: Opt for long k-mer; 2: Opt for short k-mer; -1: Auto-selection").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
+		parser.accepts("seedingmode", "Seeding mode: 1: Opt for long k-mer; 2: Opt for short k-mer; 3: Columnar index, opt for large reference; 4: K-d tree index, opt for wide ear or repetitive reference; -1: Auto-selection").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
 		parser.accepts("k", "Kmer length.").withOptionalArg().ofType(Integer.class).defaultsTo(3);
 		parser.accepts("maxnosignal", "Maximum no signal region between signals for seeding.").withOptionalArg().ofType(Integer.class).defaultsTo(10000000);
 
 	}
 }
 
-class FastConversionTable {
-	private List<Integer> sizelist; // final size must be Integer.max
-	private List<Character> rclist;
-
-	public FastConversionTable(List<Integer> sizelist, List<Character> rclist) {
-		this.sizelist = sizelist;
-		this.rclist = rclist;
-		if (rclist.size() - sizelist.size() != 0)
-			System.err.println("Table corrupted. List Size Inappropriate. Proceed anyway.");
-	}
-
-	public String convertKmer(Kmer kmer) {
-		StringBuilder s = new StringBuilder();
-		for (long possize : kmer.sizelist) {
-			int pt = 0;
-			while (possize > sizelist.get(pt))
-				pt++;
-			s.append(rclist.get(pt));
-		}
-		return s.toString();
-	}
-
-	private List<String> join(List<String> slist, List<Character> clist) {
-		// if (slist.size() != clist.size())
-		// return null;
-
-		List<String> newslist = new ArrayList<String>();
-		for (String s : slist)
-			for (char c : clist)
-				newslist.add(s + c);
-		return newslist;
-	}
-
-	public List<String> convertKmer(Kmer kmer, double ear, int measure) {
-		Kmer smallkmer = kmer.newKmer(1 - ear, measure * -1);
-		Kmer largekmer = kmer.newKmer(1 + ear, measure);
-		String smallkey = convertKmer(smallkmer);
-		String largekey = convertKmer(largekmer);
-		List<String> recentList = new ArrayList<String>();
-		recentList.add("");
-		for (int i = 0; i < smallkey.length(); i++) {
-			List<Character> clist = new ArrayList<Character>();
-			for (char c = smallkey.charAt(i); c <= largekey.charAt(i); c++)
-				clist.add(c);
-			recentList = join(recentList, clist);
-		}
-		return recentList;
-	}
-
-	public static FastConversionTable standardTable() {
-		int gap = 5000;
-		List<Character> clist = new ArrayList<Character>();
-		List<Integer> sizelist = new ArrayList<Integer>();
-		int recent = 0;
-		char next = 1;
-		for (int i = 1; i < 255; i++) {
-			recent += gap;
-			sizelist.add(recent);
-			clist.add(next);
-			next++;
-		}
-		sizelist.add(Integer.MAX_VALUE);
-		clist.add(next);
-		return new FastConversionTable(sizelist, clist);
-	}
-}
-
 // class FastKmerList
 // {
 // public List<Object> kmerlist;
@@ -0,0 +1,246 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+import joptsimple.OptionSet;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import aldenjava.opticalmapping.data.data.ReferenceReader;
+import aldenjava.opticalmapping.miscellaneous.ExtendOptionParser;
+
+/**
+ * Reads and writes the on-disk seed index. The index file stores the columns of a <code>ColumnarKmerIndex</code> together with a header of (reference checksum, k, maxnosignal, seedingmode). An index is only accepted if all these values match the current run. The columns are opened read-only through <code>FileChannel.map</code>, such that all mapper threads and processes using the same index share the pages through the page cache.
+ * <p>
+ * File layout: header, followed by refIds, positions, sizes and the sorted ids and sorted sizes of each kmer position. Every column starts at an 8-byte boundary.
+ * 
+ * @author Alden
+ *
+ */
+public class SeedIndexFile {
+
+	private static final long MAGIC = 0x4F4D42534B494458L; // "OMBSKIDX"
+	private static final int VERSION = 1;
+
+	/**
+	 * Returns the CRC32 checksum of the reference file
+	 * 
+	 * @param filename
+	 *            the reference file
+	 * @return the checksum
+	 * @throws IOException
+	 */
+	public static long checksum(String filename) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		try (FileInputStream fis = new FileInputStream(filename)) {
+			int len;
+			while ((len = fis.read(buffer)) != -1)
+				crc.update(buffer, 0, len);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Writes the <code>index</code> to a file
+	 * 
+	 * @param filename
+	 *            the output file
+	 * @param index
+	 *            the index to be written
+	 * @param referenceChecksum
+	 *            checksum of the reference file used to build the <code>index</code>
+	 * @param maxnosignalregion
+	 *            maxnosignal used to build the <code>index</code>
+	 * @param seedingmode
+	 *            the seeding mode using the <code>index</code>
+	 * @throws IOException
+	 */
+	public static void write(String filename, ColumnarKmerIndex index, long referenceChecksum, long maxnosignalregion, int seedingmode) throws IOException {
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+			dos.writeLong(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(referenceChecksum);
+			dos.writeInt(index.k());
+			dos.writeLong(maxnosignalregion);
+			dos.writeInt(seedingmode);
+			dos.writeInt(index.size());
+			String[] refNames = index.getRefNames();
+			dos.writeInt(refNames.length);
+			for (String refName : refNames)
+				dos.writeUTF(refName);
+			pad(dos);
+			writeColumn(dos, index.getRefIdColumn());
+			writeColumn(dos, index.getPositionColumn());
+			writeColumn(dos, index.getSizeColumn());
+			for (int i = 0; i < index.k(); i++) {
+				writeColumn(dos, index.getSortedIdColumn(i));
+				writeColumn(dos, index.getSortedSizeColumn(i));
+			}
+		}
+	}
+
+	private static void writeColumn(DataOutputStream dos, IntBuffer column) throws IOException {
+		for (int i = 0; i < column.limit(); i++)
+			dos.writeInt(column.get(i));
+		pad(dos);
+	}
+
+	private static void writeColumn(DataOutputStream dos, LongBuffer column) throws IOException {
+		for (int i = 0; i < column.limit(); i++)
+			dos.writeLong(column.get(i));
+		pad(dos);
+	}
+
+	private static void pad(DataOutputStream dos) throws IOException {
+		while (dos.size() % 8 != 0)
+			dos.writeByte(0);
+	}
+
+	private static long padded(long offset) {
+		return (offset + 7) / 8 * 8;
+	}
+
+	/**
+	 * Opens the index file and maps its columns read-only into memory
+	 * 
+	 * @param filename
+	 *            the index file
+	 * @param referenceChecksum
+	 *            checksum of the reference file in current run
+	 * @param k
+	 *            kmer length in current run
+	 * @param maxnosignalregion
+	 *            maxnosignal in current run
+	 * @param seedingmode
+	 *            seeding mode in current run
+	 * @return the memory-mapped index
+	 * @throws IOException
+	 *             if the file is not a seed index, or the index is built with different reference or parameters
+	 */
+	public static ColumnarKmerIndex read(String filename, long referenceChecksum, int k, long maxnosignalregion, int seedingmode) throws IOException {
+		String[] refNames;
+		int total;
+		long offset;
+		try (CountingInputStream cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+			DataInputStream dis = new DataInputStream(cis);
+			if (dis.readLong() != MAGIC)
+				throw new IOException(filename + " is not a seed index file.");
+			int version = dis.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported seed index version " + version + ".");
+			long fileChecksum = dis.readLong();
+			int fileK = dis.readInt();
+			long fileMaxnosignalregion = dis.readLong();
+			int fileSeedingmode = dis.readInt();
+			if (fileChecksum != referenceChecksum)
+				throw new IOException("Seed index is built on a different reference.");
+			if (fileK != k || fileMaxnosignalregion != maxnosignalregion || fileSeedingmode != seedingmode)
+				throw new IOException(String.format("Seed index is built with k=%d, maxnosignal=%d, seedingmode=%d.", fileK, fileMaxnosignalregion, fileSeedingmode));
+			total = dis.readInt();
+			refNames = new String[dis.readInt()];
+			for (int i = 0; i < refNames.length; i++)
+				refNames[i] = dis.readUTF();
+			offset = padded(cis.getByteCount());
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+			FileChannel channel = raf.getChannel();
+			long intColumnSize = padded(total * 4L);
+			long longColumnSize = padded(total * 8L);
+			if (offset + intColumnSize * 2 + longColumnSize * k + (intColumnSize + longColumnSize) * k > channel.size())
+				throw new IOException("Seed index file is truncated.");
+			IntBuffer refIds = map(channel, offset, total * 4L).asIntBuffer();
+			offset = padded(offset + total * 4L);
+			IntBuffer positions = map(channel, offset, total * 4L).asIntBuffer();
+			offset = padded(offset + total * 4L);
+			LongBuffer sizes = map(channel, offset, (long) total * k * 8L).asLongBuffer();
+			offset = padded(offset + (long) total * k * 8L);
+			IntBuffer[] sortedIds = new IntBuffer[k];
+			LongBuffer[] sortedSizes = new LongBuffer[k];
+			for (int i = 0; i < k; i++) {
+				sortedIds[i] = map(channel, offset, total * 4L).asIntBuffer();
+				offset = padded(offset + total * 4L);
+				sortedSizes[i] = map(channel, offset, total * 8L).asLongBuffer();
+				offset = padded(offset + total * 8L);
+			}
+			return new ColumnarKmerIndex(k, refNames, refIds, positions, sizes, sortedIds, sortedSizes);
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Seed index column is too large to be mapped.");
+		return channel.map(MapMode.READ_ONLY, offset, size);
+	}
+
+	public static void assignOptions(ExtendOptionParser parser, int level) {
+		parser.addHeader("Seed Index Options", level);
+		parser.accepts("seedindex", "Output seed index file").withRequiredArg().ofType(String.class);
+	}
+
+	/**
+	 * Builds the seed index of a reference and writes it to a file, to be used by <code>OMBlastMapper</code> with <code>--seedindex</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		ExtendOptionParser parser = new ExtendOptionParser(SeedIndexFile.class.getSimpleName());
+		ReferenceReader.assignOptions(parser);
+		SeedDatabase.assignOptions(parser, 1);
+		SeedIndexFile.assignOptions(parser, 1);
+		if (args.length == 0) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+		OptionSet options = parser.parse(args);
+		SeedDatabase seedDatabase = new SeedDatabase(ReferenceReader.readAllData(options));
+		seedDatabase.setMode(options);
+		if (seedDatabase.getMode() == -1)
+			seedDatabase.setMode(3);
+		seedDatabase.setParameters(options);
+		seedDatabase.buildDatabase();
+		seedDatabase.writeIndex((String) options.valueOf("seedindex"), checksum((String) options.valueOf("refmapin")));
+	}
+}
@@ -0,0 +1,131 @@
+/**************************************************************************
+**  OMBlast
+**  Software aligning optical maps
+**  
+**  Version 1.0 -- September 1, 2015
+**  
+**  Copyright (C) 2015 by Alden Leung, All rights reserved.
+**  Contact:  aldenleung@link.cuhk.edu.hk
+**  Organization:  Hong Kong Bioinformatics Centre, School of Life Sciences, The
+**                 Chinese University of Hong Kong, Shatin, NT,
+**                 Hong Kong SAR
+**  
+**  This file is part of OMBlast.
+**  
+**  OMBlast is free software; you can redistribute it and/or 
+**  modify it under the terms of the GNU General Public License 
+**  as published by the Free Software Foundation; either version 
+**  3 of the License, or (at your option) any later version.
+**  
+**  OMBlast is distributed in the hope that it will be useful,
+**  but WITHOUT ANY WARRANTY; without even the implied warranty of
+**  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+**  GNU General Public License for more details.
+**  
+**  You should have received a copy of the GNU General Public 
+**  License along with OMBlast; if not, see 
+**  <http://www.gnu.org/licenses/>.
+**************************************************************************/
+
+
+package aldenjava.opticalmapping.mapper.seeding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes query kmers that are similar to too many other kmers nearby on the same query, which usually come from high-density or repetitive regions. It gives the same result as {@link SeedDatabase#filter(List, double, int, int, int)} on a database built from the same kmers, but compares each kmer only to the kmers within <code>maxSignalConsidered</code> signals. The buffers are reused across calls, so an instance should not be shared between threads.
+ * 
+ * @author Alden
+ *
+ */
+public class SelfSimilarityFilter {
+
+	private int k;
+	private int[] positions = new int[0];
+	private long[] sizes = new long[0];
+	private long[] lower = new long[0];
+	private long[] upper = new long[0];
+
+	/**
+	 * Filters the kmers of a single query. The kmers must be in ascending order of position, as returned by <code>DataNode.getKmerWord</code>.
+	 * 
+	 * @param kmerList
+	 *            kmers of the query
+	 * @param ear
+	 *            error acceptable range
+	 * @param measure
+	 *            measurement error
+	 * @param maxSeedNumber
+	 *            maximum number of similar kmers, including the kmer itself
+	 * @param maxSignalConsidered
+	 *            maximum number of signals between two kmers to be considered similar. <code>-1</code> considers the whole query
+	 * @return kmers passing the filter
+	 */
+	public List<Kmer> filter(List<Kmer> kmerList, double ear, int measure, int maxSeedNumber, int maxSignalConsidered) {
+		List<Kmer> filteredKmerList = new ArrayList<Kmer>();
+		if (kmerList.isEmpty())
+			return filteredKmerList;
+		load(kmerList);
+		long window = (maxSignalConsidered == -1) ? Long.MAX_VALUE / 2 : (long) maxSignalConsidered + k;
+		int n = kmerList.size();
+		int windowStart = 0;
+		for (int i = 0; i < n; i++) {
+			for (int pos = 0; pos < k; pos++) {
+				lower[pos] = (long) (sizes[i * k + pos] * (1 - ear)) - measure;
+				upper[pos] = (long) (sizes[i * k + pos] * (1 + ear)) + measure;
+			}
+			while (positions[windowStart] < positions[i] - window)
+				windowStart++;
+			int r = 1;
+			for (int j = windowStart; j < n && positions[j] <= positions[i] + window && r <= maxSeedNumber; j++)
+				if (inside(j) && limitRange(j, i, measure, ear))
+					r++;
+			if (r <= maxSeedNumber)
+				filteredKmerList.add(kmerList.get(i));
+		}
+		return filteredKmerList;
+	}
+
+	private void load(List<Kmer> kmerList) {
+		k = kmerList.get(0).k();
+		int n = kmerList.size();
+		if (positions.length < n)
+			positions = new int[Math.max(n, positions.length * 2)];
+		if (sizes.length < n * k)
+			sizes = new long[Math.max(n * k, sizes.length * 2)];
+		if (lower.length < k) {
+			lower = new long[k];
+			upper = new long[k];
+		}
+		for (int i = 0; i < n; i++) {
+			Kmer kmer = kmerList.get(i);
+			positions[i] = kmer.pos;
+			for (int pos = 0; pos < k; pos++)
+				sizes[i * k + pos] = kmer.get(pos);
+		}
+	}
+
+	private boolean inside(int j) {
+		int offset = j * k;
+		for (int pos = 0; pos < k; pos++)
+			if (sizes[offset + pos] < lower[pos] || sizes[offset + pos] > upper[pos])
+				return false;
+		return true;
+	}
+
+	// Same as Kmer.limitRange, where kmer j is the matched kmer and kmer i is the query kmer
+	private boolean limitRange(int j, int i, int measure, double ear) {
+		double ubound = 1 + ear;
+		double lbound = 1 - ear;
+		for (int pos = 0; pos < k; pos++) {
+			double newubound = (sizes[i * k + pos] + measure) / (double) sizes[j * k + pos];
+			double newlbound = (sizes[i * k + pos] - measure) / (double) sizes[j * k + pos];
+			if (newubound < ubound)
+				ubound = newubound;
+			if (newlbound > lbound)
+				lbound = newlbound;
+		}
+		return (ubound >= lbound);
+	}
+}